@@ -0,0 +1,122 @@
+package org.checkerframework.languageserver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures the path of a check result from the wrapper output to a hover: grouping the diagnostics
+ * by file as the receiver of {@link CheckExecutor} does, building the result of each file as {@link
+ * CFTextDocumentService#publish} does, and looking up type information as {@link
+ * CFTextDocumentService#hover} does. Most diagnostics of a result are type information messages, as
+ * reported for every expression of the checked files.
+ */
+@State(Scope.Benchmark)
+public class DiagnosticsBenchmark {
+    /** The number of diagnostics in the result. */
+    @Param({"1000", "20000"})
+    public int diagnostics;
+
+    /** The number of files checked together. */
+    private static final int FILES = 8;
+
+    /** One in this many diagnostics is a warning rather than type information. */
+    private static final int WARNING_EVERY = 10;
+
+    /** The URIs of the checked files. */
+    private List<String> uris;
+
+    /** The diagnostics of the check, as read from the wrapper. */
+    private List<CFDiagnostic> received;
+
+    /** The diagnostics of the first file, as grouped by the receiver. */
+    private List<javax.tools.Diagnostic<?>> published;
+
+    /** The version of the first file. */
+    private SourceVersion version;
+
+    /** The result of the first file. */
+    private FileResult result;
+
+    /** The positions looked up, as line and column. */
+    private int[][] hovers;
+
+    /** Creates the result of a check of several files. */
+    @Setup
+    public void setUp() {
+        uris = new ArrayList<>(FILES);
+        for (int f = 0; f < FILES; f++) {
+            uris.add("file:///src/org/example/Generated" + f + ".java");
+        }
+        received = new ArrayList<>(diagnostics);
+        int lines = diagnostics / FILES / 4 + 1;
+        for (int i = 0; i < diagnostics; i++) {
+            int line = i / FILES / 4;
+            int col = 4 + (i % 4) * 12;
+            String message =
+                    i % WARNING_EVERY == 0
+                            ? "[dereference.of.nullable] dereference of possibly-null reference"
+                            : "(lsp.type.information) NullnessChecker;expression;@NonNull Type"
+                                    + (i % 50)
+                                    + ";range=("
+                                    + line
+                                    + ", "
+                                    + col
+                                    + ", "
+                                    + line
+                                    + ", "
+                                    + (col + 8)
+                                    + ")";
+            received.add(
+                    new CFDiagnostic(
+                            uris.get(i % FILES),
+                            i % WARNING_EVERY == 0 ? "ERROR" : "NOTE",
+                            i * 10,
+                            i * 10,
+                            i * 10 + 8,
+                            line + 1,
+                            col + 1,
+                            "compiler.err.proc.messager",
+                            message));
+        }
+        published = groupBySource().get(uris.get(0));
+        version = new SourceVersion(1, "key");
+        result = buildResult();
+        Random random = new Random(42);
+        hovers = new int[1024][];
+        for (int i = 0; i < hovers.length; i++) {
+            hovers[i] = new int[] {random.nextInt(lines), random.nextInt(56)};
+        }
+    }
+
+    /** Groups the diagnostics of the check by file. */
+    @Benchmark
+    public Map<String, List<javax.tools.Diagnostic<?>>> groupBySource() {
+        return CheckExecutor.groupBySource(uris, received);
+    }
+
+    /** Converts the diagnostics of a file and indexes its type information. */
+    @Benchmark
+    public FileResult buildResult() {
+        return CFTextDocumentService.toFileResult(published, version);
+    }
+
+    /** Looks up the type information at positions of a file, joined as for a hover. */
+    @Benchmark
+    public void hover(Blackhole blackhole) {
+        for (int[] h : hovers) {
+            List<String> typeInfo = result.getTypeInfo().get(h[0], h[1]);
+            if (!typeInfo.isEmpty()) {
+                blackhole.consume(String.join("\n", typeInfo));
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package org.checkerframework.languageserver;
+
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeMap;
+import com.google.common.collect.TreeRangeMap;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the {@link TypeInfoIndex} with the {@link TreeRangeMap} of boxed positions it replaced:
+ * the time to build the type information of a file, the time of a hover lookup, and the retained
+ * size, which is printed at the end of each trial.
+ */
+@State(Scope.Benchmark)
+public class TypeInfoIndexBenchmark {
+    /** The number of lines of the file, each with a few nested ranges. */
+    @Param({"500", "5000"})
+    public int lines;
+
+    /** The reported ranges, as start line, start column, end line, end column. */
+    private int[][] ranges;
+
+    /** The reported messages, equal but not identical as after parsing. */
+    private String[] messages;
+
+    /** The positions looked up, as line and column. */
+    private int[][] hovers;
+
+    /** The index built from the ranges. */
+    private TypeInfoIndex index;
+
+    /** The range map built from the ranges. */
+    private RangeMap<Position, List<String>> rangeMap;
+
+    /** Creates the ranges of a file with nested expressions on every line. */
+    @Setup
+    public void setUp() {
+        List<int[]> r = new ArrayList<>();
+        List<String> m = new ArrayList<>();
+        for (int line = 0; line < lines; line++) {
+            int[][] onLine = {{4, 60}, {10, 20}, {12, 15}, {30, 40}};
+            for (int[] cols : onLine) {
+                r.add(new int[] {line, cols[0], line, cols[1]});
+                m.add(
+                        new StringBuilder("NullnessChecker;expression;@NonNull Type")
+                                .append(r.size() % 50)
+                                .toString());
+            }
+        }
+        ranges = r.toArray(new int[0][]);
+        messages = m.toArray(new String[0]);
+        Random random = new Random(42);
+        hovers = new int[1024][];
+        for (int i = 0; i < hovers.length; i++) {
+            hovers[i] = new int[] {random.nextInt(lines), random.nextInt(64)};
+        }
+        index = buildIndex();
+        rangeMap = buildRangeMap();
+    }
+
+    /** Prints the retained size of both structures. */
+    @TearDown(Level.Trial)
+    public void printFootprint() {
+        System.out.println();
+        System.out.println(
+                "TypeInfoIndex retained bytes: " + GraphLayout.parseInstance(index).totalSize());
+        System.out.println(
+                "TreeRangeMap retained bytes: " + GraphLayout.parseInstance(rangeMap).totalSize());
+    }
+
+    /** Builds the index. */
+    @Benchmark
+    public TypeInfoIndex buildIndex() {
+        TypeInfoIndex.Builder builder = new TypeInfoIndex.Builder();
+        for (int i = 0; i < ranges.length; i++) {
+            int[] r = ranges[i];
+            builder.add(r[0], r[1], r[2], r[3], messages[i]);
+        }
+        return builder.build();
+    }
+
+    /** Builds the range map as the document service used to. */
+    @Benchmark
+    public RangeMap<Position, List<String>> buildRangeMap() {
+        RangeMap<Position, List<String>> map = TreeRangeMap.create();
+        for (int i = 0; i < ranges.length; i++) {
+            int[] r = ranges[i];
+            Position start = new Position(r[0], r[1]);
+            Position end = new Position(r[2], r[3]);
+            List<String> forPosition = map.get(start);
+            if (forPosition == null) {
+                forPosition = new ArrayList<>();
+            }
+            forPosition.add(messages[i].substring(0));
+            map.put(Range.closed(start, end), forPosition);
+        }
+        return map;
+    }
+
+    /** Looks up positions in the index. */
+    @Benchmark
+    public void hoverIndex(Blackhole blackhole) {
+        for (int[] h : hovers) {
+            blackhole.consume(index.get(h[0], h[1]));
+        }
+    }
+
+    /** Looks up positions in the range map. */
+    @Benchmark
+    public void hoverRangeMap(Blackhole blackhole) {
+        for (int[] h : hovers) {
+            blackhole.consume(rangeMap.get(new Position(h[0], h[1])));
+        }
+    }
+
+    /** A boxed position, as the document service used to key its range maps. */
+    static class Position implements Comparable<Position> {
+        /** The line. */
+        final int line;
+
+        /** The column. */
+        final int col;
+
+        /** Default constructor for Position. */
+        Position(int line, int col) {
+            this.line = line;
+            this.col = col;
+        }
+
+        @Override
+        public int compareTo(Position o) {
+            return line != o.line ? Integer.compare(line, o.line) : Integer.compare(col, o.col);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.checkerframework.languageserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Compares the {@link WireFormat} with the line-delimited JSON it replaced, for a result with many
+ * type information messages such as those produced for large files.
+ */
+@State(Scope.Benchmark)
+public class WireFormatBenchmark {
+    /** The number of diagnostics in the result. */
+    @Param({"100", "10000"})
+    public int diagnostics;
+
+    /** The gson used by the JSON format. */
+    private final Gson gson = new Gson();
+
+    /** The result to be encoded. */
+    private CFDiagnosticList result;
+
+    /** The result as a JSON line. */
+    private byte[] json;
+
+    /** The result as a frame. */
+    private byte[] frame;
+
+    /** Creates the result and its encodings. */
+    @Setup
+    public void setUp() throws IOException {
+        List<CFDiagnostic> diags = new ArrayList<>(diagnostics);
+        for (int i = 0; i < diagnostics; i++) {
+            diags.add(
+                    new CFDiagnostic(
+                            "file:///src/org/example/Generated" + (i % 4) + ".java",
+                            "NOTE",
+                            i * 10,
+                            i * 10,
+                            i * 10 + 5,
+                            i / 8 + 1,
+                            i % 80 + 1,
+                            "compiler.note.proc.messager",
+                            "(lsp.type.information) NullnessChecker;field;"
+                                    + "@NonNull String;"
+                                    + (i * 10)
+                                    + ","
+                                    + (i * 10 + 5)));
+        }
+        List<SourceReferences> references = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            references.add(
+                    new SourceReferences(
+                            "file:///src/org/example/Generated" + i + ".java",
+                            Collections.singletonList("org.example.Generated" + i),
+                            Collections.singletonList("org.example.Model"),
+                            Collections.singletonList("file:///src/org/example/Model.java")));
+        }
+        result = new CFDiagnosticList(1, false, false, diags, references, 0, new ArrayList<>());
+        json = (gson.toJson(result) + "\n").getBytes(UTF_8);
+        frame = encodeFrame();
+    }
+
+    /** Encodes the result as a JSON line. */
+    @Benchmark
+    public byte[] encodeJson() {
+        return (gson.toJson(result, CFDiagnosticList.class) + "\n").getBytes(UTF_8);
+    }
+
+    /** Decodes the result from a JSON line, as read from the output of a wrapper. */
+    @Benchmark
+    public CFDiagnosticList decodeJson() throws IOException {
+        BufferedReader reader =
+                new BufferedReader(new InputStreamReader(new ByteArrayInputStream(json), UTF_8));
+        return gson.fromJson(reader.readLine(), CFDiagnosticList.class);
+    }
+
+    /** Encodes the result as a frame on a new stream, so without strings interned before. */
+    @Benchmark
+    public byte[] encodeFrame() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new WireFormat.Writer(out).writeResult(result);
+        return out.toByteArray();
+    }
+
+    /** Decodes the result from a frame. */
+    @Benchmark
+    public CFDiagnosticList decodeFrame() throws IOException {
+        return new WireFormat.Reader(new ByteArrayInputStream(frame)).readResult();
+    }
+}
@@ -6,10 +6,12 @@ import javax.tools.Diagnostic;
 import javax.tools.JavaFileObject;
 
 /**
- * JSON wrapper to communicate javac diagnostics from {@link JavacWrapper} to {@link CheckExecutor}.
+ * A javac diagnostic reduced to plain values, so that {@link JavacWrapper} can send it to {@link
+ * CheckExecutor} in a {@link CFDiagnosticList}, and the {@link DiagnosticsCache} can store it as
+ * JSON.
  */
 public class CFDiagnostic implements Diagnostic<Object> {
-    /** The file URI. */
+    /** The file URI, or {@code null} if the diagnostic is not associated with a file. */
     private final String fileUri;
 
     /** The diagnostics kind. It is one of value in {@link Kind} enum. */
@@ -43,7 +45,7 @@ public class CFDiagnostic implements Diagnostic<Object> {
 
     /** Default constructor for CFDiagnostic. */
     CFDiagnostic(Diagnostic<? extends JavaFileObject> diagnostic) {
-        fileUri = diagnostic.getSource().toUri().toString();
+        fileUri = diagnostic.getSource() == null ? null : diagnostic.getSource().toUri().toString();
         kind = diagnostic.getKind().name();
         position = diagnostic.getPosition();
         startPosition = diagnostic.getStartPosition();
@@ -54,6 +56,28 @@ public class CFDiagnostic implements Diagnostic<Object> {
         message = diagnostic.getMessage(null);
     }
 
+    /** Constructor for all fields of CFDiagnostic. */
+    CFDiagnostic(
+            String fileUri,
+            String kind,
+            long position,
+            long startPosition,
+            long endPosition,
+            long lineNumber,
+            long columnNumber,
+            String code,
+            String message) {
+        this.fileUri = fileUri;
+        this.kind = kind;
+        this.position = position;
+        this.startPosition = startPosition;
+        this.endPosition = endPosition;
+        this.lineNumber = lineNumber;
+        this.columnNumber = columnNumber;
+        this.code = code;
+        this.message = message;
+    }
+
     /**
      * Gets the kind of this diagnostic, for example, error or warning.
      *
@@ -3,22 +3,108 @@ package org.checkerframework.languageserver;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.tools.Diagnostic;
-import javax.tools.JavaFileObject;
-
 /**
- * JSON wrapper to communicate javac diagnostics from {@link JavacWrapper} to {@link CheckExecutor}.
+ * The answer of {@link JavacWrapper} to a {@link CheckRequest}, sent back to {@link CheckExecutor}
+ * in the {@link WireFormat}.
+ *
+ * <p>While a check runs, the diagnostics reported so far are sent in partial lists. The check ends
+ * with a complete list, which carries the remaining diagnostics and the references of the files.
  */
 public class CFDiagnosticList {
+    /** The id of the {@link CheckRequest} these diagnostics answer. */
+    private final long id;
+
+    /**
+     * Whether the check was cancelled before it finished, in which case there are no diagnostics.
+     */
+    private final boolean cancelled;
+
+    /** Whether the check is still running, and more diagnostics follow in later lists. */
+    private final boolean partial;
+
     /** The diagnostics. */
     private final List<CFDiagnostic> diags;
 
-    /** Default constructor for CFDiagnosticList. */
-    public CFDiagnosticList(List<Diagnostic<? extends JavaFileObject>> diagnostics) {
-        diags = new ArrayList<>(diagnostics.size());
-        for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
-            diags.add(new CFDiagnostic(d));
-        }
+    /** The references of the compiled files that were analyzed. */
+    private final List<SourceReferences> references;
+
+    /**
+     * The heap used by the wrapper after its last garbage collection, in bytes, or 0 if unknown.
+     */
+    private final long heapUsed;
+
+    /** The time spent in each phase and checker, empty unless timings were requested. */
+    private final List<PhaseTiming> timings;
+
+    /** Constructor for all fields of CFDiagnosticList. */
+    CFDiagnosticList(
+            long id,
+            boolean cancelled,
+            boolean partial,
+            List<CFDiagnostic> diags,
+            List<SourceReferences> references,
+            long heapUsed,
+            List<PhaseTiming> timings) {
+        this.id = id;
+        this.cancelled = cancelled;
+        this.partial = partial;
+        this.diags = diags;
+        this.references = references;
+        this.heapUsed = heapUsed;
+        this.timings = timings;
+    }
+
+    /**
+     * Creates the result of a cancelled check.
+     *
+     * @param id the id of the cancelled check
+     * @return the result without diagnostics
+     */
+    public static CFDiagnosticList cancelled(long id) {
+        return new CFDiagnosticList(
+                id, true, false, new ArrayList<>(), new ArrayList<>(), 0, new ArrayList<>());
+    }
+
+    /**
+     * Creates a partial result of a running check.
+     *
+     * @param id the id of the check
+     * @param diags the diagnostics reported since the last partial result
+     * @return the partial result
+     */
+    static CFDiagnosticList partial(long id, List<CFDiagnostic> diags) {
+        return new CFDiagnosticList(
+                id, false, true, diags, new ArrayList<>(), 0, new ArrayList<>());
+    }
+
+    /** Getter for the id of the check. */
+    public long getId() {
+        return id;
+    }
+
+    /** Returns true if the check was cancelled. */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Returns true if the check is still running, and more diagnostics follow. */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    /** Getter for the references of the compiled files. */
+    public List<SourceReferences> getReferences() {
+        return references;
+    }
+
+    /** Getter for the heap used by the wrapper after its last garbage collection; 0 if unknown. */
+    long getHeapUsed() {
+        return heapUsed;
+    }
+
+    /** Getter for the time spent in each phase and checker; empty unless requested. */
+    List<PhaseTiming> getTimings() {
+        return timings;
     }
 
     /** Getter for the list of diagnostics. */
@@ -1,18 +1,35 @@
 package org.checkerframework.languageserver;
 
+import org.eclipse.lsp4j.DiagnosticRegistrationOptions;
+import org.eclipse.lsp4j.ExecuteCommandOptions;
 import org.eclipse.lsp4j.InitializeParams;
 import org.eclipse.lsp4j.InitializeResult;
+import org.eclipse.lsp4j.InitializedParams;
 import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.ServerCapabilities;
+import org.eclipse.lsp4j.TextDocumentClientCapabilities;
 import org.eclipse.lsp4j.TextDocumentSyncKind;
+import org.eclipse.lsp4j.WindowClientCapabilities;
+import org.eclipse.lsp4j.WorkspaceClientCapabilities;
+import org.eclipse.lsp4j.WorkspaceDiagnosticParams;
+import org.eclipse.lsp4j.WorkspaceDiagnosticReport;
+import org.eclipse.lsp4j.WorkspaceFolder;
 import org.eclipse.lsp4j.services.LanguageClient;
 import org.eclipse.lsp4j.services.LanguageClientAware;
 import org.eclipse.lsp4j.services.LanguageServer;
 import org.eclipse.lsp4j.services.TextDocumentService;
 import org.eclipse.lsp4j.services.WorkspaceService;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /** The actual language server, responsible for communicating with the client (editor). */
@@ -20,6 +37,9 @@ public class CFLanguageServer implements LanguageServer, LanguageClientAware {
     /** The logger for issuing information in the language server. */
     private static final Logger logger = Logger.getLogger(CFLanguageServer.class.getName());
 
+    /** The trace of the server, which records the diagnostics published. */
+    private static final Trace trace = Trace.SERVER;
+
     /** Name of the server and settings block. */
     public static final String SERVER_NAME = "checker-framework";
 
@@ -29,35 +49,59 @@ public class CFLanguageServer implements LanguageServer, LanguageClientAware {
     /** The settings instance. */
     private Settings settings;
 
-    /** The Checker Framework executor. */
-    private final CheckExecutor executor;
-
     /** The Checker Framework document service. */
     private final CFTextDocumentService textDocumentService;
 
     /** The Checker Framework workspace service. */
     private final CFWorkspaceService workspaceService;
 
+    /** The workspace folders given by the client. */
+    private final List<File> workspaceFolders = new ArrayList<>();
+
+    /** Whether the client can show the progress of work done by the server. */
+    private boolean workDoneProgress;
+
+    /** Whether the client can be asked to pull the diagnostics of the documents again. */
+    private boolean refreshDiagnostics;
+
+    /** The running check of the workspace, or {@code null} if there is none. */
+    private WorkspaceChecker workspaceChecker;
+
+    /**
+     * Applies configuration changes one after the other, off the thread that receives the messages
+     * of the client.
+     */
+    private final ExecutorService reconfiguration =
+            Executors.newSingleThreadExecutor(
+                    r -> {
+                        Thread t = new Thread(r, "Reconfiguration");
+                        t.setDaemon(true);
+                        return t;
+                    });
+
     /** Default constructor for Checker Framework language server. */
     CFLanguageServer(Settings settings) throws IOException {
         this.settings = settings;
-        this.textDocumentService = new CFTextDocumentService(this);
-        this.executor = buildExecutor();
-        this.textDocumentService.setExecutor(this.executor);
+        trace.setLevel(settings.getTraceLevel());
+        this.textDocumentService = new CFTextDocumentService(this, settings);
+        this.textDocumentService.setExecutor(buildExecutor(settings));
         this.client = null;
         this.workspaceService = new CFWorkspaceService(this);
     }
 
-    /** The function for building the executor for checks. */
-    private CheckExecutor buildExecutor() throws IOException {
+    /**
+     * The function for building the executor for checks.
+     *
+     * @param settings the settings of the executor
+     */
+    private CheckExecutor buildExecutor(Settings settings) throws IOException {
         String checker = settings.getCheckerPath();
         logger.info("Launching CheckExecutor using " + checker);
         return new CheckExecutor(
                 this.textDocumentService,
-                settings.getJdkPath(),
-                settings.getCheckerPath(),
-                settings.getCheckers(),
-                settings.getCommandLineOptions());
+                this.textDocumentService.getDocuments(),
+                this.textDocumentService.getDependencies(),
+                settings);
     }
 
     @Override
@@ -84,13 +128,70 @@ public class CFLanguageServer implements LanguageServer, LanguageClientAware {
      *     href="https://microsoft.github.io/language-server-protocol/specification#initialize">specification</a>
      */
     @Override
+    @SuppressWarnings("deprecation") // rootUri, for clients without workspace folders
     public CompletableFuture<InitializeResult> initialize(InitializeParams params) {
+        if (params.getWorkspaceFolders() != null) {
+            for (WorkspaceFolder folder : params.getWorkspaceFolders()) {
+                workspaceFolders.add(new File(URI.create(folder.getUri())));
+            }
+        } else if (params.getRootUri() != null) {
+            workspaceFolders.add(new File(URI.create(params.getRootUri())));
+        }
+        WindowClientCapabilities window =
+                params.getCapabilities() != null ? params.getCapabilities().getWindow() : null;
+        workDoneProgress = window != null && Boolean.TRUE.equals(window.getWorkDoneProgress());
+        TextDocumentClientCapabilities textDocument =
+                params.getCapabilities() != null
+                        ? params.getCapabilities().getTextDocument()
+                        : null;
+        textDocumentService.setPullDiagnostics(
+                textDocument != null && textDocument.getDiagnostic() != null);
+        WorkspaceClientCapabilities workspace =
+                params.getCapabilities() != null ? params.getCapabilities().getWorkspace() : null;
+        refreshDiagnostics =
+                workspace != null
+                        && workspace.getDiagnostics() != null
+                        && Boolean.TRUE.equals(workspace.getDiagnostics().getRefreshSupport());
         ServerCapabilities capabilities = new ServerCapabilities();
         capabilities.setTextDocumentSync(TextDocumentSyncKind.Full);
         capabilities.setHoverProvider(true);
+        // Diagnostics of a file depend on the files it references.
+        DiagnosticRegistrationOptions diagnostics = new DiagnosticRegistrationOptions(true, true);
+        diagnostics.setIdentifier(SERVER_NAME);
+        capabilities.setDiagnosticProvider(diagnostics);
+        capabilities.setExecuteCommandProvider(
+                new ExecuteCommandOptions(
+                        Collections.singletonList(CFWorkspaceService.DUMP_TRACE_COMMAND)));
         return CompletableFuture.completedFuture(new InitializeResult(capabilities));
     }
 
+    /**
+     * The initialized notification is sent from the client to the server after the client received
+     * the result of the initialize request, so the server may now send requests to the client.
+     */
+    @Override
+    public void initialized(InitializedParams params) {
+        restartWorkspaceCheck();
+    }
+
+    /**
+     * Stops the running check of the workspace, and starts a new one if enabled in the settings.
+     */
+    private synchronized void restartWorkspaceCheck() {
+        if (workspaceChecker != null) {
+            workspaceChecker.stop();
+            workspaceChecker = null;
+        }
+        if (settings.getCheckWorkspace() && !workspaceFolders.isEmpty()) {
+            workspaceChecker =
+                    new WorkspaceChecker(
+                            textDocumentService,
+                            workDoneProgress ? client : null,
+                            workspaceFolders);
+            workspaceChecker.start();
+        }
+    }
+
     /**
      * The shutdown request is sent from the client to the server. It asks the server to shutdown,
      * but to not exit (otherwise the response might not be delivered correctly to the client).
@@ -98,6 +199,13 @@ public class CFLanguageServer implements LanguageServer, LanguageClientAware {
      */
     @Override
     public CompletableFuture<Object> shutdown() {
+        synchronized (this) {
+            if (workspaceChecker != null) {
+                workspaceChecker.stop();
+            }
+        }
+        // The wrappers would otherwise only exit once the server process is gone.
+        textDocumentService.getExecutor().retire();
         return CompletableFuture.completedFuture(null);
     }
 
@@ -123,16 +231,57 @@ public class CFLanguageServer implements LanguageServer, LanguageClientAware {
 
     /**
      * Accepts a new configuration set by the user (called from {@link CFWorkspaceService}). The new
-     * configuration is then passed to {@link CFTextDocumentService}.
+     * configuration is then passed to {@link CFTextDocumentService}. The executor for the new
+     * configuration is started in the background, and the old one keeps serving checks until it
+     * takes over.
      *
      * @param settings the new settings
      */
     void didChangeConfiguration(Settings settings) {
-        this.settings = settings;
+        reconfiguration.execute(() -> reconfigure(settings));
+    }
+
+    /**
+     * Applies a new configuration.
+     *
+     * @param settings the new settings
+     */
+    private void reconfigure(Settings settings) {
+        CheckExecutor next;
         try {
-            textDocumentService.setExecutor(buildExecutor());
+            next = buildExecutor(settings);
         } catch (IOException e) {
             logger.severe("Failed to change configuration: " + e.toString());
+            return;
+        }
+        synchronized (this) {
+            this.settings = settings;
+        }
+        trace.setLevel(settings.getTraceLevel());
+        textDocumentService.setSettings(settings);
+        textDocumentService.setExecutor(next);
+        // The results of the previous configuration no longer apply.
+        restartWorkspaceCheck();
+        refreshDiagnostics();
+    }
+
+    /**
+     * Answers a workspace diagnostic request (called from {@link CFWorkspaceService}) with the
+     * results stored by {@link CFTextDocumentService}.
+     *
+     * @param params the request
+     * @return the report
+     */
+    WorkspaceDiagnosticReport workspaceDiagnostic(WorkspaceDiagnosticParams params) {
+        return textDocumentService.workspaceDiagnostic(params);
+    }
+
+    /**
+     * Asks the client to pull the diagnostics of the documents it shows again, if it supports it.
+     */
+    void refreshDiagnostics() {
+        if (refreshDiagnostics) {
+            client.refreshDiagnostics();
         }
     }
 
@@ -142,7 +291,22 @@ public class CFLanguageServer implements LanguageServer, LanguageClientAware {
      * @param params the diagnostics
      */
     void publishDiagnostics(PublishDiagnosticsParams params) {
-        logger.info(params.toString());
+        trace.event(
+                Level.FINE,
+                0,
+                "publishDiagnostics %s version %s: %s diagnostics",
+                params.getUri(),
+                params.getVersion(),
+                params.getDiagnostics().size());
         client.publishDiagnostics(params);
     }
+
+    /**
+     * Send a telemetry event from {@link CFTextDocumentService} to the client.
+     *
+     * @param event the event
+     */
+    void telemetryEvent(Object event) {
+        client.telemetryEvent(event);
+    }
 }
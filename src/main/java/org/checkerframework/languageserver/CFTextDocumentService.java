@@ -1,8 +1,5 @@
 package org.checkerframework.languageserver;
 
-import com.google.common.collect.RangeMap;
-import com.google.common.collect.TreeRangeMap;
-
 import org.checkerframework.javacutil.BugInCF;
 import org.eclipse.lsp4j.Diagnostic;
 import org.eclipse.lsp4j.DiagnosticSeverity;
@@ -10,24 +7,41 @@ import org.eclipse.lsp4j.DidChangeTextDocumentParams;
 import org.eclipse.lsp4j.DidCloseTextDocumentParams;
 import org.eclipse.lsp4j.DidOpenTextDocumentParams;
 import org.eclipse.lsp4j.DidSaveTextDocumentParams;
+import org.eclipse.lsp4j.DocumentDiagnosticParams;
+import org.eclipse.lsp4j.DocumentDiagnosticReport;
 import org.eclipse.lsp4j.Hover;
 import org.eclipse.lsp4j.HoverParams;
 import org.eclipse.lsp4j.MarkupContent;
 import org.eclipse.lsp4j.MarkupKind;
 import org.eclipse.lsp4j.Position;
+import org.eclipse.lsp4j.PreviousResultId;
 import org.eclipse.lsp4j.PublishDiagnosticsParams;
 import org.eclipse.lsp4j.Range;
+import org.eclipse.lsp4j.RelatedFullDocumentDiagnosticReport;
+import org.eclipse.lsp4j.RelatedUnchangedDocumentDiagnosticReport;
+import org.eclipse.lsp4j.TextDocumentContentChangeEvent;
+import org.eclipse.lsp4j.WorkspaceDiagnosticParams;
+import org.eclipse.lsp4j.WorkspaceDiagnosticReport;
+import org.eclipse.lsp4j.WorkspaceDocumentDiagnosticReport;
+import org.eclipse.lsp4j.WorkspaceFullDocumentDiagnosticReport;
+import org.eclipse.lsp4j.WorkspaceUnchangedDocumentDiagnosticReport;
 import org.eclipse.lsp4j.services.TextDocumentService;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -37,6 +51,9 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
     /** The logger for issuing information in the Checker Framework document service. */
     private static final Logger logger = Logger.getLogger(CFTextDocumentService.class.getName());
 
+    /** The trace of the server, which records the notifications of the client. */
+    private static final Trace trace = Trace.SERVER;
+
     /**
      * The pattern of the range in CF message "lsp.type.information".
      *
@@ -58,23 +75,109 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
     private final CFLanguageServer server;
 
     /** The Checker Framework executor. */
-    private CheckExecutor executor;
+    private volatile CheckExecutor executor;
+
+    /** Coalesces requested checks before they are sent to the executor. */
+    private final CheckScheduler scheduler;
+
+    /** The content of the documents open in the client. */
+    private final DocumentStore documents = new DocumentStore();
+
+    /** The references between files, used to re-check the dependents of saved files. */
+    private final DependencyGraph dependencies = new DependencyGraph();
+
+    /** The maximum number of dependents re-checked after a save. */
+    private volatile int dependentsLimit;
+
+    /**
+     * The result of the last check of each file, by canonical file, see {@link #canonical}. Results
+     * are replaced as a whole, so that hovers never see a result that is being built.
+     */
+    private final Map<File, FileResult> results = new ConcurrentHashMap<>();
 
     /**
-     * Store hover type information for each file. Map key is file, value is a mapping from a range
-     * of positions to the corresponding type messages.
+     * A lock for each file, by canonical file, held while its result is replaced and its
+     * diagnostics are published, so that they reach the client in the order the results were
+     * stored. The lock of a file is dropped with its result when the document is closed; a thread
+     * that acquired a dropped lock takes the new lock of the file instead, see {@link #lock}.
      */
-    private final Map<File, RangeMap<ComparablePosition, List<String>>> filesToTypeInfo =
-            new HashMap<>();
+    private final Map<File, Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     * The documents that have been closed and not opened again, by canonical file. A result of the
+     * unsaved content of such a document that arrives after it was closed is dropped.
+     */
+    private final Set<File> closed = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Completed with the next complete result of each file that a pull request waits for. Keyed by
+     * canonical file, like {@link #results}.
+     */
+    private final Map<File, CompletableFuture<FileResult>> nextResults = new ConcurrentHashMap<>();
+
+    /** Whether the client pulls diagnostics, so that they are not pushed. */
+    private volatile boolean pullDiagnostics;
 
     /** Default constructor for Checker Framework document service. */
-    CFTextDocumentService(CFLanguageServer server) {
+    CFTextDocumentService(CFLanguageServer server, Settings settings) {
         this.server = server;
+        this.scheduler =
+                new CheckScheduler(
+                        (files, force) -> executor.compile(files, force),
+                        settings.getDebounceMillis());
+        this.dependentsLimit = settings.getDependentsLimit();
+    }
+
+    /** Getter for the content of the documents open in the client. */
+    DocumentStore getDocuments() {
+        return documents;
     }
 
-    /** Setter for the executor field. */
+    /** Getter for the references between files. */
+    DependencyGraph getDependencies() {
+        return dependencies;
+    }
+
+    /** Getter for the executor field. */
+    CheckExecutor getExecutor() {
+        return executor;
+    }
+
+    /** Returns true if checks have been requested by the client that have not been sent yet. */
+    boolean hasScheduledChecks() {
+        return scheduler.hasPending();
+    }
+
+    /**
+     * Setter for the executor field. A replaced executor is retired once the new one has taken
+     * over, and the open documents are checked again with the new one. Their diagnostics of the old
+     * configuration are shown until then.
+     *
+     * @param executor the new executor
+     */
     void setExecutor(CheckExecutor executor) {
+        CheckExecutor old = this.executor;
         this.executor = executor;
+        if (old != null) {
+            old.retire();
+            checkAndPublish(documents.openFiles());
+        }
+    }
+
+    /**
+     * Setter for the diagnostics model. Once the client pulls diagnostics, changed results are only
+     * announced with a refresh request, after which the client pulls the documents it shows.
+     *
+     * @param pullDiagnostics whether the client pulls diagnostics
+     */
+    void setPullDiagnostics(boolean pullDiagnostics) {
+        this.pullDiagnostics = pullDiagnostics;
+    }
+
+    /** Apply the settings that do not require a new executor. */
+    void setSettings(Settings settings) {
+        scheduler.setQuietMillis(settings.getDebounceMillis());
+        dependentsLimit = settings.getDependentsLimit();
     }
 
     /**
@@ -86,15 +189,27 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
      */
     private void clearDiagnostics(List<File> files) {
         for (File file : files) {
-            filesToTypeInfo.remove(file);
-
-            server.publishDiagnostics(
-                    new PublishDiagnosticsParams(file.toURI().toString(), Collections.emptyList()));
+            File canonical = canonical(file);
+            while (true) {
+                Object lock = lock(canonical);
+                synchronized (lock) {
+                    if (!locks.remove(canonical, lock)) {
+                        continue;
+                    }
+                    results.remove(canonical);
+                    if (!pullDiagnostics) {
+                        server.publishDiagnostics(
+                                new PublishDiagnosticsParams(
+                                        file.toURI().toString(), Collections.emptyList()));
+                    }
+                    break;
+                }
+            }
         }
     }
 
     /** Convert raw diagnostics from the compiler to the LSP counterpart. */
-    private Diagnostic convertToLSPDiagnostic(javax.tools.Diagnostic<?> diagnostic) {
+    private static Diagnostic convertToLSPDiagnostic(javax.tools.Diagnostic<?> diagnostic) {
         DiagnosticSeverity severity;
         switch (diagnostic.getKind()) {
             case ERROR:
@@ -111,9 +226,10 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
         }
 
         // Line numbers and column numbers in Diagnostic are 1-based,
-        // while LSP clients use 0-based positions.
-        int startLine = (int) diagnostic.getLineNumber() - 1;
-        int startCol = (int) diagnostic.getColumnNumber() - 1;
+        // while LSP clients use 0-based positions. Diagnostics without a position are shown at
+        // the start of the file.
+        int startLine = Math.max(0, (int) diagnostic.getLineNumber() - 1);
+        int startCol = Math.max(0, (int) diagnostic.getColumnNumber() - 1);
         int endCol = (int) (startCol + diagnostic.getEndPosition() - diagnostic.getStartPosition());
         Position startPos = new Position(startLine, startCol);
         Position endPos = new Position(startLine, endCol);
@@ -127,12 +243,14 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
     }
 
     /**
-     * Run type check and publish results.
+     * Run type check and publish results. The check is debounced by the {@link CheckScheduler}.
      *
      * @param files source files to be checked
+     * @return a future completed once the files have been checked, see {@link
+     *     CheckScheduler#schedule(List)}
      */
-    private void checkAndPublish(List<File> files) {
-        executor.compile(files);
+    private CompletableFuture<Boolean> checkAndPublish(List<File> files) {
+        return scheduler.schedule(files);
     }
 
     /**
@@ -147,9 +265,17 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
      */
     @Override
     public void didOpen(DidOpenTextDocumentParams params) {
-        logger.info(params.toString());
-        checkAndPublish(
-                Collections.singletonList(new File(URI.create(params.getTextDocument().getUri()))));
+        trace.event(
+                Level.FINE,
+                0,
+                "didOpen %s version %s",
+                params.getTextDocument().getUri(),
+                params.getTextDocument().getVersion());
+        File f = new File(URI.create(params.getTextDocument().getUri()));
+        closed.remove(canonical(f));
+        documents.update(
+                f, params.getTextDocument().getText(), params.getTextDocument().getVersion());
+        checkAndPublish(Collections.singletonList(f));
     }
 
     /**
@@ -160,7 +286,23 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
      */
     @Override
     public void didChange(DidChangeTextDocumentParams params) {
-        // change but not saved; ignore since we can only check the actual file
+        trace.event(
+                Level.FINER,
+                0,
+                "didChange %s version %s",
+                params.getTextDocument().getUri(),
+                params.getTextDocument().getVersion());
+        List<TextDocumentContentChangeEvent> changes = params.getContentChanges();
+        if (changes.isEmpty()) {
+            return;
+        }
+        // With full synchronization, the last change holds the whole content of the document.
+        File f = new File(URI.create(params.getTextDocument().getUri()));
+        documents.update(
+                f,
+                changes.get(changes.size() - 1).getText(),
+                params.getTextDocument().getVersion());
+        checkAndPublish(Collections.singletonList(f));
     }
 
     /**
@@ -175,8 +317,12 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
      */
     @Override
     public void didClose(DidCloseTextDocumentParams params) {
-        logger.info(params.toString());
+        trace.event(Level.FINE, 0, "didClose %s", params.getTextDocument().getUri());
         File f = new File(URI.create(params.getTextDocument().getUri()));
+        documents.close(f);
+        // The versions of the document start again when it is reopened, so the result of the
+        // closed document is dropped with its version, and so are those that arrive late.
+        closed.add(canonical(f));
         clearDiagnostics(Collections.singletonList(f));
     }
 
@@ -191,30 +337,364 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
      */
     @Override
     public void didSave(DidSaveTextDocumentParams params) {
-        logger.info(params.toString());
+        trace.event(Level.FINE, 0, "didSave %s", params.getTextDocument().getUri());
         File f = new File(URI.create(params.getTextDocument().getUri()));
-        List<File> files = Collections.singletonList(f);
-        clearDiagnostics(files);
-        checkAndPublish(files);
+        checkAndPublish(Collections.singletonList(f));
+        // The content of the dependents has not changed, so their cached diagnostics, which may
+        // be stale now, must not be used.
+        scheduler.schedule(dependentsOf(f), true);
+    }
+
+    /**
+     * Get the files that transitively depend on a file, up to the configured limit. Documents open
+     * in the client come first, since their diagnostics are visible to the user.
+     *
+     * @param file the changed file
+     * @return the dependents of {@code file} in the order they should be checked
+     */
+    private List<File> dependentsOf(File file) {
+        int limit = dependentsLimit;
+        if (limit <= 0) {
+            return Collections.emptyList();
+        }
+        String uri;
+        try {
+            uri = file.getCanonicalFile().toPath().toUri().toString();
+        } catch (IOException e) {
+            logger.warning("Cannot resolve " + file + ": " + e.getMessage());
+            return Collections.emptyList();
+        }
+        List<File> open = new ArrayList<>();
+        List<File> closed = new ArrayList<>();
+        for (String dependentUri : dependencies.dependents(uri)) {
+            File dependent = new File(URI.create(dependentUri));
+            if (documents.getText(dependent) != null) {
+                open.add(dependent);
+            } else if (dependent.exists()) {
+                closed.add(dependent);
+            }
+        }
+        open.addAll(closed);
+        if (open.size() > limit) {
+            logger.info("Re-checking " + limit + " of " + open.size() + " dependents of " + file);
+            return open.subList(0, limit);
+        }
+        return open;
     }
 
     @Override
-    public void publish(Map<String, List<javax.tools.Diagnostic<?>>> result) {
+    public void publish(
+            Map<String, List<javax.tools.Diagnostic<?>>> result,
+            Map<String, SourceVersion> versions) {
+        boolean changed = false;
         for (Map.Entry<String, List<javax.tools.Diagnostic<?>>> entry : result.entrySet()) {
-            List<Diagnostic> diagnostics = new ArrayList<>();
+            // The type information of the previous check of the file is replaced.
+            FileResult fileResult = toFileResult(entry.getValue(), versions.get(entry.getKey()));
+            changed |= store(entry.getKey(), old -> fileResult);
+        }
+        if (changed && pullDiagnostics) {
+            server.refreshDiagnostics();
+        }
+    }
+
+    /**
+     * Builds the result of a file from the complete diagnostics of a check: the type information
+     * messages go into the index for hovers, and the other diagnostics are converted for the
+     * client.
+     *
+     * @param diagnostics the diagnostics of the file
+     * @param source the content that was checked, or {@code null} if the diagnostics were reported
+     *     in a file that was not checked, which then has no key
+     * @return the result of the file
+     */
+    static FileResult toFileResult(
+            List<javax.tools.Diagnostic<?>> diagnostics, SourceVersion source) {
+        List<Diagnostic> converted = new ArrayList<>();
+        TypeInfoIndex.Builder typeInfo = new TypeInfoIndex.Builder();
+        for (javax.tools.Diagnostic<?> diagnostic : diagnostics) {
+            String message = diagnostic.getMessage(Locale.getDefault());
+            if (message != null && message.contains("lsp.type.information")) {
+                // this message is for lsp support
+                addTypeMessage(typeInfo, message);
+            } else {
+                converted.add(convertToLSPDiagnostic(diagnostic));
+            }
+        }
+        return source != null
+                ? new FileResult(source.getVersion(), source.getKey(), converted, typeInfo.build())
+                : new FileResult(null, null, converted, typeInfo.build());
+    }
 
+    /**
+     * Publish the diagnostics found so far in each file. Type information is only recorded from the
+     * complete results, so the type information of the previous check is kept until then.
+     */
+    @Override
+    public void publishPartial(
+            Map<String, List<javax.tools.Diagnostic<?>>> result,
+            Map<String, SourceVersion> versions) {
+        if (pullDiagnostics) {
+            // Pull requests are answered with complete results only.
+            return;
+        }
+        for (Map.Entry<String, List<javax.tools.Diagnostic<?>>> entry : result.entrySet()) {
+            List<Diagnostic> diagnostics = new ArrayList<>();
             for (javax.tools.Diagnostic<?> diagnostic : entry.getValue()) {
                 String message = diagnostic.getMessage(Locale.getDefault());
-                if (message != null && message.contains("lsp.type.information")) {
-                    // this message is for lsp support
-                    File file = new File(URI.create(entry.getKey()));
-                    publishTypeMessage(file, message);
-                } else {
+                if (message == null || !message.contains("lsp.type.information")) {
                     diagnostics.add(convertToLSPDiagnostic(diagnostic));
                 }
             }
+            SourceVersion source = versions.get(entry.getKey());
+            Integer version = source != null ? source.getVersion() : null;
+            store(
+                    entry.getKey(),
+                    old ->
+                            new FileResult(
+                                    version,
+                                    null,
+                                    diagnostics,
+                                    old == null ? TypeInfoIndex.EMPTY : old.getTypeInfo()));
+        }
+    }
+
+    /**
+     * Send the timings of a check to the client in a {@code telemetry/event} whose {@code kind} is
+     * {@code checkTimings}, to tell which checker or file makes checks slow.
+     */
+    @Override
+    public void publishTimings(List<PhaseTiming> timings) {
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("kind", "checkTimings");
+        event.put("timings", timings);
+        server.telemetryEvent(event);
+    }
+
+    /**
+     * Replace the result of a file with a new one and publish its diagnostics, unless the stored
+     * result is of a later version of the document. Diagnostics equal to the ones last published
+     * for the file are not sent again, as the client would only repaint them. If the client pulls
+     * diagnostics, they are not published, and a complete result is handed to the pull request
+     * waiting for it instead. Results of the same file, such as the partial and complete results of
+     * consecutive checks received by different workers, are stored and published one at a time, so
+     * that the client is left with the diagnostics of the stored result.
+     *
+     * @param uri the URI of the file
+     * @param build builds the new result from the stored one, which may be {@code null}
+     * @return true if the diagnostics of the file changed
+     */
+    private boolean store(String uri, Function<FileResult, FileResult> build) {
+        File file = canonical(new File(URI.create(uri)));
+        while (true) {
+            Object lock = lock(file);
+            synchronized (lock) {
+                if (locks.get(file) == lock) {
+                    return storeLocked(uri, file, build);
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the result of a file while its lock is held, see {@link #store(String, Function)}.
+     *
+     * @param uri the URI of the file
+     * @param file the canonical file
+     * @param build builds the new result from the stored one, which may be {@code null}
+     * @return true if the diagnostics of the file changed
+     */
+    private boolean storeLocked(String uri, File file, Function<FileResult, FileResult> build) {
+        FileResult old = results.get(file);
+        FileResult result = build.apply(old);
+        if (isOutdated(file, result)) {
+            if (old == null) {
+                // No result is stored for the file, so it needs no lock either.
+                locks.remove(file);
+            }
+            return false;
+        }
+        if (old != null && old.isNewerThan(result)) {
+            return false;
+        }
+        results.put(file, result);
+        if (result.getKey() != null) {
+            CompletableFuture<FileResult> next = nextResults.remove(file);
+            if (next != null) {
+                next.complete(result);
+            }
+        }
+        if (old != null && old.getDiagnostics().equals(result.getDiagnostics())) {
+            return false;
+        }
+        if (!pullDiagnostics) {
+            server.publishDiagnostics(
+                    new PublishDiagnosticsParams(
+                            uri, result.getDiagnostics(), result.getVersion()));
+        }
+        return true;
+    }
+
+    /**
+     * Returns the lock of a file, see {@link #locks}. The lock may be dropped by the time the
+     * caller has acquired it, which the caller checks with {@link #locks} before it goes on.
+     *
+     * @param file the canonical file
+     * @return the lock
+     */
+    private Object lock(File file) {
+        return locks.computeIfAbsent(file, k -> new Object());
+    }
+
+    /**
+     * Returns true if a result is of unsaved content of a document that has been closed since, or
+     * closed and opened again. Such a result must not be stored, as the versions of a reopened
+     * document start again and the result would hold back the results of the new versions.
+     *
+     * @param file the canonical file
+     * @param result the result of the file
+     * @return true if the result is of a document that is no longer open
+     */
+    private boolean isOutdated(File file, FileResult result) {
+        if (result.getVersion() == null) {
+            return false;
+        }
+        DocumentStore.Document document = documents.get(file);
+        return document != null
+                ? result.getVersion() > document.getVersion()
+                : closed.contains(file);
+    }
+
+    /**
+     * The document diagnostic request is sent from the client to the server to pull the diagnostics
+     * of a document. If the stored result was computed from the current content of the document
+     * with the current configuration, it is returned right away, and as unchanged if the client
+     * already has it. Otherwise the request waits for the next check of the document, which is
+     * requested unless one is on its way. If that check ends without a result, for example as it is
+     * cancelled or given up, the request is answered with the stored result, if any.
+     *
+     * @see <a
+     *     href="https://microsoft.github.io/language-server-protocol/specification#textDocument_diagnostic">specification</a>
+     */
+    @Override
+    public CompletableFuture<DocumentDiagnosticReport> diagnostic(DocumentDiagnosticParams params) {
+        trace.event(
+                Level.FINE,
+                0,
+                "textDocument/diagnostic %s previous %s",
+                params.getTextDocument().getUri(),
+                params.getPreviousResultId());
+        File f = new File(URI.create(params.getTextDocument().getUri()));
+        File file = canonical(f);
+        String previousResultId = params.getPreviousResultId();
+        String key = executor.key(f);
+        FileResult stored = results.get(file);
+        if (key != null && stored != null && key.equals(stored.getKey())) {
+            return CompletableFuture.completedFuture(report(stored, previousResultId));
+        }
+        CompletableFuture<FileResult> next =
+                nextResults.computeIfAbsent(file, k -> new CompletableFuture<>());
+        // The result may have been stored before the request started waiting.
+        stored = results.get(file);
+        if (key != null && stored != null && key.equals(stored.getKey())) {
+            return CompletableFuture.completedFuture(report(stored, previousResultId));
+        }
+        CompletableFuture<Boolean> checked = scheduler.whenChecked(f);
+        if (checked == null) {
+            checked = executor.whenChecked(f);
+        }
+        if (checked == null) {
+            checked = checkAndPublish(Collections.singletonList(f));
+        }
+        // The result of the check completes the request as it is stored. If the check ends without
+        // a result, the request is answered with the stored one.
+        checked.whenComplete(
+                (published, failure) -> {
+                    nextResults.remove(file, next);
+                    FileResult previous = results.get(file);
+                    next.complete(
+                            previous != null
+                                    ? previous
+                                    : new FileResult(
+                                            null,
+                                            null,
+                                            Collections.emptyList(),
+                                            TypeInfoIndex.EMPTY));
+                });
+        return next.thenApply(result -> report(result, previousResultId));
+    }
+
+    /**
+     * Answers a pull request for the diagnostics of a file.
+     *
+     * @param result the result of the file
+     * @param previousResultId the ID of the diagnostics the client has, or {@code null}
+     * @return an unchanged report if the client has the diagnostics of the result, a full report
+     *     otherwise
+     */
+    private static DocumentDiagnosticReport report(FileResult result, String previousResultId) {
+        String resultId = result.getResultId();
+        if (resultId != null && resultId.equals(previousResultId)) {
+            return new DocumentDiagnosticReport(
+                    new RelatedUnchangedDocumentDiagnosticReport(resultId));
+        }
+        RelatedFullDocumentDiagnosticReport full =
+                new RelatedFullDocumentDiagnosticReport(result.getDiagnostics());
+        full.setResultId(resultId);
+        return new DocumentDiagnosticReport(full);
+    }
+
+    /**
+     * Answers a workspace diagnostic request with the stored results of all checked files. Files
+     * whose diagnostics the client already has are reported as unchanged. No check is run; the
+     * files of the workspace are checked in the background if enabled in the settings.
+     *
+     * @param params the request, with the result IDs the client has
+     * @return the report
+     */
+    WorkspaceDiagnosticReport workspaceDiagnostic(WorkspaceDiagnosticParams params) {
+        Map<String, String> previous = new HashMap<>();
+        if (params.getPreviousResultIds() != null) {
+            for (PreviousResultId id : params.getPreviousResultIds()) {
+                previous.put(id.getUri(), id.getValue());
+            }
+        }
+        List<WorkspaceDocumentDiagnosticReport> items = new ArrayList<>();
+        for (Map.Entry<File, FileResult> entry : results.entrySet()) {
+            FileResult result = entry.getValue();
+            String resultId = result.getResultId();
+            if (resultId == null) {
+                continue;
+            }
+            String uri = entry.getKey().toPath().toUri().toString();
+            if (resultId.equals(previous.get(uri))) {
+                items.add(
+                        new WorkspaceDocumentDiagnosticReport(
+                                new WorkspaceUnchangedDocumentDiagnosticReport(
+                                        resultId, uri, result.getVersion())));
+            } else {
+                WorkspaceFullDocumentDiagnosticReport full =
+                        new WorkspaceFullDocumentDiagnosticReport(
+                                result.getDiagnostics(), uri, result.getVersion());
+                full.setResultId(resultId);
+                items.add(new WorkspaceDocumentDiagnosticReport(full));
+            }
+        }
+        return new WorkspaceDiagnosticReport(items);
+    }
 
-            server.publishDiagnostics(new PublishDiagnosticsParams(entry.getKey(), diagnostics));
+    /**
+     * Returns the canonical form of a file, under which its result is stored. Every access to
+     * {@link #results} and {@link #nextResults} goes through this method, as the client and javac
+     * may name the same file differently.
+     *
+     * @param file the file, as named by the client
+     * @return the canonical file, or {@code file} itself if it cannot be resolved
+     */
+    private static File canonical(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file;
         }
     }
 
@@ -228,33 +708,30 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
     public CompletableFuture<Hover> hover(HoverParams params) {
         int line = params.getPosition().getLine();
         int character = params.getPosition().getCharacter();
-        ComparablePosition currentPosition = new ComparablePosition(line, character);
         File curFile = new File(URI.create(params.getTextDocument().getUri()));
-        RangeMap<ComparablePosition, List<String>> typeInfo = filesToTypeInfo.get(curFile);
+        FileResult result = results.get(canonical(curFile));
 
-        if (typeInfo != null) {
-            List<String> rawTypeInfoForHover = typeInfo.get(currentPosition);
-            if (rawTypeInfoForHover != null) {
+        if (result != null) {
+            List<String> rawTypeInfoForHover = result.getTypeInfo().get(line, character);
+            if (!rawTypeInfoForHover.isEmpty()) {
                 MarkupContent typeInfoForHover = new MarkupContent();
                 typeInfoForHover.setKind(MarkupKind.PLAINTEXT);
                 typeInfoForHover.setValue(String.join("\n", rawTypeInfoForHover));
-                Hover result = new Hover(typeInfoForHover);
-                return CompletableFuture.completedFuture(result);
+                return CompletableFuture.completedFuture(new Hover(typeInfoForHover));
             }
         }
         return CompletableFuture.completedFuture(null);
     }
 
     /**
-     * Publish the given type message for the given file.
+     * Add the given type message to the type information of a file.
      *
-     * @param file The file to which the type message corresponds.
+     * @param typeInfo The type information of the file.
      * @param msg A type message which contains checker name, message kind, type information, and
      *     the range of this type in the given file, separated by the delimiter ";".
      */
-    private void publishTypeMessage(File file, String msg) {
+    private static void addTypeMessage(TypeInfoIndex.Builder typeInfo, String msg) {
         int lastDelimiter = msg.lastIndexOf(';');
-        String typeInfo = msg.substring(0, lastDelimiter);
         String positionInfo = msg.substring(lastDelimiter + 1).trim();
         Matcher rangeMatcher = rangePattern.matcher(positionInfo);
         if (!rangeMatcher.matches()) {
@@ -266,22 +743,6 @@ public class CFTextDocumentService implements TextDocumentService, Publisher {
         int endLine = Integer.parseInt(rangeMatcher.group(3));
         int endCol = Integer.parseInt(rangeMatcher.group(4));
 
-        ComparablePosition start = new ComparablePosition(startLine, startCol);
-        ComparablePosition end = new ComparablePosition(endLine, endCol);
-
-        RangeMap<ComparablePosition, List<String>> currentTypeInfo = filesToTypeInfo.get(file);
-        if (currentTypeInfo == null) {
-            currentTypeInfo = TreeRangeMap.create();
-            filesToTypeInfo.put(file, currentTypeInfo);
-        }
-
-        List<String> typeInfoForPosition = currentTypeInfo.get(start);
-        if (typeInfoForPosition == null) {
-            typeInfoForPosition = new ArrayList<>();
-        }
-
-        typeInfoForPosition.add(typeInfo);
-        currentTypeInfo.put(
-                com.google.common.collect.Range.closed(start, end), typeInfoForPosition);
+        typeInfo.add(startLine, startCol, endLine, endCol, msg.substring(0, lastDelimiter));
     }
 }
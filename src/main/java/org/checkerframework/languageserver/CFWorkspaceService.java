@@ -1,11 +1,19 @@
 package org.checkerframework.languageserver;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonPrimitive;
 
 import org.eclipse.lsp4j.DidChangeConfigurationParams;
 import org.eclipse.lsp4j.DidChangeWatchedFilesParams;
+import org.eclipse.lsp4j.ExecuteCommandParams;
+import org.eclipse.lsp4j.PreviousResultId;
+import org.eclipse.lsp4j.WorkspaceDiagnosticParams;
+import org.eclipse.lsp4j.WorkspaceDiagnosticReport;
 import org.eclipse.lsp4j.services.WorkspaceService;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /** This class is for workspace service and used in {@link CFLanguageServer}. */
@@ -16,6 +24,15 @@ public class CFWorkspaceService implements WorkspaceService {
     /** The Checker Framework language server for workspace service. */
     private final CFLanguageServer server;
 
+    /**
+     * The command that returns the {@link Trace} of the server, or the trace of the check whose id
+     * is given as argument.
+     */
+    static final String DUMP_TRACE_COMMAND = CFLanguageServer.SERVER_NAME + ".dumpTrace";
+
+    /** The trace of the server. */
+    private static final Trace trace = Trace.SERVER;
+
     /** The gson for Checker Framework workspace service. */
     private final Gson gson;
 
@@ -34,7 +51,8 @@ public class CFWorkspaceService implements WorkspaceService {
      */
     @Override
     public void didChangeConfiguration(DidChangeConfigurationParams params) {
-        logger.info(params.toString());
+        // The settings are formatted only if the trace is dumped.
+        trace.event(Level.FINE, 0, "didChangeConfiguration %s", params.getSettings());
         server.didChangeConfiguration(
                 gson.fromJson(gson.toJson(params.getSettings()), Settings.class));
     }
@@ -48,4 +66,63 @@ public class CFWorkspaceService implements WorkspaceService {
      */
     @Override
     public void didChangeWatchedFiles(DidChangeWatchedFilesParams params) {}
+
+    /**
+     * The workspace diagnostic request is sent from the client to the server to pull the
+     * diagnostics of all files checked so far.
+     *
+     * @see <a
+     *     href="https://microsoft.github.io/language-server-protocol/specification#workspace_diagnostic">specification</a>
+     */
+    @Override
+    public CompletableFuture<WorkspaceDiagnosticReport> diagnostic(
+            WorkspaceDiagnosticParams params) {
+        // The previous result IDs are required by the protocol, but not every client sends them.
+        List<PreviousResultId> previous = params.getPreviousResultIds();
+        trace.event(
+                Level.FINE,
+                0,
+                "workspace/diagnostic with %s previous results",
+                previous != null ? previous.size() : 0);
+        return CompletableFuture.completedFuture(server.workspaceDiagnostic(params));
+    }
+
+    /**
+     * The workspace/executeCommand request is sent from the client to the server to trigger command
+     * execution on the server. The only command is {@link #DUMP_TRACE_COMMAND}, which returns the
+     * recorded events, one line each.
+     *
+     * @see <a
+     *     href="https://microsoft.github.io/language-server-protocol/specification#workspace_executeCommand">specification</a>
+     */
+    @Override
+    public CompletableFuture<Object> executeCommand(ExecuteCommandParams params) {
+        if (!DUMP_TRACE_COMMAND.equals(params.getCommand())) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long check = -1;
+        if (params.getArguments() != null && !params.getArguments().isEmpty()) {
+            check = checkId(params.getArguments().get(0));
+        }
+        return CompletableFuture.completedFuture(trace.dump(check));
+    }
+
+    /**
+     * Reads the id of a check from an argument of a command. LSP4J passes the arguments as Gson
+     * elements, in which the id may be a number or a string.
+     *
+     * @param argument the argument
+     * @return the id, or -1 if the argument is not one
+     */
+    static long checkId(Object argument) {
+        try {
+            if (argument instanceof JsonPrimitive) {
+                return ((JsonPrimitive) argument).getAsLong();
+            }
+            return Long.parseLong(String.valueOf(argument));
+        } catch (NumberFormatException e) {
+            logger.warning("Not a check id: " + argument);
+            return -1;
+        }
+    }
 }
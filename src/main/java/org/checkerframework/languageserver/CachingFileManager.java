@@ -0,0 +1,150 @@
+package org.checkerframework.languageserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A file manager that is shared by the compilations of {@link JavacWrapper} and remembers the
+ * package listings of locations that cannot change while it is in use: locations made only of
+ * archives, such as the classpath jars and the platform classes. The javac file manager itself
+ * keeps those archives open between compilations.
+ *
+ * <p>Source locations and directories are always listed afresh. If an archive on the class path,
+ * processor path or platform class path is replaced, the file manager reports that it is out of
+ * date, and {@link JavacWrapper} starts over with a new one.
+ */
+class CachingFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+    /** The locations whose archives are watched for changes. */
+    private static final List<StandardLocation> WATCHED_LOCATIONS =
+            Arrays.asList(
+                    StandardLocation.CLASS_PATH,
+                    StandardLocation.ANNOTATION_PROCESSOR_PATH,
+                    StandardLocation.PLATFORM_CLASS_PATH);
+
+    /** The cached listings, keyed by the arguments of {@link #list}. */
+    private final Map<List<Object>, List<JavaFileObject>> listings = new HashMap<>();
+
+    /** Whether the listings of a location may be cached. */
+    private final Map<Location, Boolean> cacheable = new HashMap<>();
+
+    /**
+     * The last-modified time and size of the archives in the watched locations, taken after the
+     * first compilation has set the locations; {@code null} before.
+     */
+    private List<String> fingerprint;
+
+    /** Default constructor for CachingFileManager. */
+    CachingFileManager(StandardJavaFileManager fileManager) {
+        super(fileManager);
+    }
+
+    /** Getter for the underlying standard file manager. */
+    StandardJavaFileManager getDelegate() {
+        return fileManager;
+    }
+
+    /**
+     * Records the archives in the watched locations, once the first compilation has set the
+     * locations, which javac does when the task is created. Later calls do nothing.
+     */
+    void recordFingerprint() {
+        if (fingerprint == null) {
+            fingerprint = fingerprint();
+        }
+    }
+
+    /**
+     * Returns true if no archive in the watched locations has changed since the first compilation.
+     * Before {@link #recordFingerprint}, there is nothing to compare with and the result is true.
+     */
+    boolean isUpToDate() {
+        return fingerprint == null || fingerprint.equals(fingerprint());
+    }
+
+    @Override
+    public Iterable<JavaFileObject> list(
+            Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+            throws IOException {
+        if (!isCacheable(location)) {
+            return super.list(location, packageName, kinds, recurse);
+        }
+        List<Object> key = Arrays.asList(location, packageName, kinds, recurse);
+        List<JavaFileObject> listing = listings.get(key);
+        if (listing == null) {
+            listing = new ArrayList<>();
+            for (JavaFileObject f : super.list(location, packageName, kinds, recurse)) {
+                listing.add(f);
+            }
+            listings.put(key, listing);
+        }
+        return listing;
+    }
+
+    /**
+     * Returns true if the content of the given location cannot change: it consists only of archives
+     * and of paths in read-only file systems such as the Java runtime image.
+     */
+    private boolean isCacheable(Location location) {
+        Boolean result = cacheable.get(location);
+        if (result == null) {
+            result = computeCacheable(location);
+            cacheable.put(location, result);
+        }
+        return result;
+    }
+
+    /** Computes the result of {@link #isCacheable} for a location not seen before. */
+    private boolean computeCacheable(Location location) {
+        if (location.isOutputLocation()
+                || location == StandardLocation.SOURCE_PATH
+                || location == StandardLocation.MODULE_SOURCE_PATH) {
+            return false;
+        }
+        Iterable<? extends Path> paths;
+        try {
+            paths = fileManager.getLocationAsPaths(location);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (paths == null) {
+            return false;
+        }
+        for (Path p : paths) {
+            if (p.getFileSystem() == FileSystems.getDefault() && !Files.isRegularFile(p)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the last-modified time and size of the archives in the watched locations. */
+    private List<String> fingerprint() {
+        List<String> result = new ArrayList<>();
+        for (StandardLocation location : WATCHED_LOCATIONS) {
+            Iterable<? extends File> files = fileManager.getLocation(location);
+            if (files == null) {
+                continue;
+            }
+            for (File f : files) {
+                if (f.isFile()) {
+                    result.add(f.getPath() + ":" + f.lastModified() + ":" + f.length());
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -2,21 +2,34 @@ package org.checkerframework.languageserver;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 
-import com.google.gson.Gson;
-
 import org.checkerframework.framework.util.CheckerMain;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /** Used to run the Checker Framework and collect results. */
@@ -24,27 +37,108 @@ class CheckExecutor {
     /** The logger class for issuing information and warnings. */
     private static final Logger logger = Logger.getLogger(CheckExecutor.class.getName());
 
+    /** The trace of the server, which records the progress of every check. */
+    private static final Trace trace = Trace.SERVER;
+
+    /** How long a retired wrapper may take to answer its cancelled checks and exit. */
+    private static final long RETIRE_TIMEOUT_MILLIS = 10_000;
+
+    /** How often the supervisor looks at the workers. */
+    private static final long SUPERVISE_MILLIS = 1_000;
+
+    /** The longest wait before a worker that keeps dying is started again. */
+    private static final long MAX_RESTART_DELAY_MILLIS = 60_000;
+
+    /**
+     * How many times a check that timed out, or whose wrapper died while running it, is sent to the
+     * successor of the wrapper before it is given up.
+     */
+    private static final int MAX_RETRIES = 1;
+
+    /** The code of the errors that a checker reports, as opposed to the errors of javac. */
+    private static final String CHECKER_ERROR_CODE = "compiler.err.proc.messager";
+
+    /**
+     * How much earlier than its actual modification a file may seem to have been modified, as file
+     * systems keep modification times to the second or coarser.
+     */
+    private static final long TIMESTAMP_RESOLUTION_MILLIS = 2_000;
+
     /** The publisher class for publish result. */
     private final Publisher publisher;
 
+    /** The content of the documents open in the client, which is checked instead of the disk. */
+    private final DocumentStore documents;
+
+    /** The references between source files, updated with every check result. */
+    private final DependencyGraph dependencies;
+
     /** The options for java compiler. */
     private final List<String> options;
 
-    /** The gson class for convert Json to diagnostics. */
-    private final Gson gson;
+    /**
+     * The pool of JavacWrapper processes that run the checks. The supervisor replaces a worker in
+     * its slot when it dies, hangs or is recycled.
+     */
+    private final List<Worker> workers;
+
+    /** The number of times in a row the worker in each slot died without finishing a check. */
+    private final int[] failures;
+
+    /** The earliest time, in {@link System#nanoTime} terms, at which each slot may restart. */
+    private final long[] restartAt;
+
+    /** Watches the workers, see {@link #supervise}. */
+    private final ScheduledExecutorService supervisor;
+
+    /** The longest time a check may run before its worker is killed, or 0 for no limit. */
+    private final long checkTimeoutMillis;
+
+    /** The number of checks after which a worker is recycled, or 0 for no limit. */
+    private final int recycleAfterChecks;
+
+    /** The heap use in bytes after which a worker is recycled, or 0 for no limit. */
+    private final long workerHeapLimit;
 
-    /** The Process class for run the checks. */
-    private final Process wrapper;
+    /** The id of the next check, unique across all workers. */
+    private final AtomicLong nextCheckId = new AtomicLong();
 
-    /** Default constructor for check executor. */
+    /** Computes the keys of the content of the checked files. */
+    private final SourceKeys keys;
+
+    /** The persistent cache of diagnostics, or {@code null} if caching is disabled. */
+    private final DiagnosticsCache cache;
+
+    /** Whether the diagnostics found so far by a running check are published. */
+    private final boolean streamDiagnostics;
+
+    /** Whether the wrappers run in the server, see {@link InProcessWrapper}. */
+    private final boolean inProcess;
+
+    /** The class data sharing archive of the wrappers, or {@code null} if it is disabled. */
+    private final SharedArchive sharedArchive;
+
+    /**
+     * Default constructor for check executor.
+     *
+     * @param publisher receives the diagnostics of the checks
+     * @param documents the open documents, whose text is checked instead of the saved one
+     * @param dependencies the dependencies between the sources, updated by each check
+     * @param settings the paths, checkers and limits of the checks and workers
+     */
     CheckExecutor(
             Publisher publisher,
-            String jdkPath,
-            String checkerPath,
-            List<String> checkers,
-            List<String> commandLineOptions)
+            DocumentStore documents,
+            DependencyGraph dependencies,
+            Settings settings)
             throws IOException {
         this.publisher = publisher;
+        this.streamDiagnostics = settings.getStreamDiagnostics();
+        this.checkTimeoutMillis = settings.getCheckTimeoutMillis();
+        this.recycleAfterChecks = settings.getRecycleAfterChecks();
+        this.documents = documents;
+        this.dependencies = dependencies;
+        String checkerPath = settings.getCheckerPath();
 
         List<String> opts = new ArrayList<>();
         // adapted from
@@ -55,12 +149,12 @@ class CheckExecutor {
         // accepted if annotation processing is explicitly requested
         // Therefore, we now add them to the beginning of the options list.
         opts.add("-processor");
-        opts.add(String.join(",", checkers));
-        opts.add("-Xbootclasspath/p:" + jdkPath);
+        opts.add(String.join(",", settings.getCheckers()));
+        opts.add("-Xbootclasspath/p:" + settings.getJdkPath());
         opts.add("-processorpath");
         opts.add(checkerPath);
         opts.add("-proc:only");
-        opts.addAll(commandLineOptions);
+        opts.addAll(settings.getCommandLineOptions());
 
         logger.info("java.version is: " + System.getProperty("java.version"));
 
@@ -90,69 +184,1264 @@ class CheckExecutor {
             }
         }
 
-        gson = new Gson();
-        logger.info(String.join(" ", options));
-        wrapper = Runtime.getRuntime().exec(options.toArray(new String[0]));
+        // The JVM options do not change the diagnostics, so they are not part of the keys.
+        keys = new SourceKeys(options);
+        this.inProcess = settings.getInProcess() && InProcessWrapper.isSupported(options);
+        if (!this.inProcess) {
+            options.addAll(1, settings.getWorkerJvmOptions());
+        }
+        if (settings.getReportTimings()) {
+            options.add(1, "-D" + JavacWrapper.TIMINGS_PROPERTY + "=true");
+        }
+        logger.info((this.inProcess ? "In process: " : "") + String.join(" ", options));
+        // The wrappers in the server share its heap, so the heap used is not theirs alone.
+        this.workerHeapLimit = this.inProcess ? 0 : settings.getWorkerHeapLimit();
+        File sharedArchiveDirectory = settings.getSharedArchiveDirectory();
+        sharedArchive =
+                sharedArchiveDirectory != null && !this.inProcess
+                        ? SharedArchive.open(sharedArchiveDirectory, checkerPath, options)
+                        : null;
+        DiagnosticsCache diagnosticsCache = null;
+        File cacheDirectory = settings.getCacheDirectory();
+        if (cacheDirectory != null) {
+            try {
+                diagnosticsCache = new DiagnosticsCache(cacheDirectory.toPath());
+            } catch (IOException e) {
+                logger.warning("Failed to open the diagnostics cache: " + e.toString());
+            }
+        }
+        cache = diagnosticsCache;
+        int workerCount = settings.getWorkers();
+        List<Worker> started = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            started.add(new Worker(i));
+        }
+        workers = new CopyOnWriteArrayList<>(started);
+        failures = new int[workerCount];
+        restartAt = new long[workerCount];
+        Arrays.fill(restartAt, System.nanoTime());
+        supervisor =
+                Executors.newSingleThreadScheduledExecutor(
+                        r -> {
+                            Thread t = new Thread(r, "CheckExecutor-Supervisor");
+                            t.setDaemon(true);
+                            return t;
+                        });
+        supervisor.scheduleWithFixedDelay(
+                this::supervise, SUPERVISE_MILLIS, SUPERVISE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Looks after the workers. A worker whose wrapper has exited is replaced, right away the first
+     * time and then with a delay that doubles with every further death without a finished check, in
+     * case the wrapper cannot start at all. A worker whose check has run longer than the check
+     * timeout is killed, to be replaced on a later round. An idle worker that has run too many
+     * checks or whose heap has grown too large is recycled. The checks queued on a replaced worker
+     * are sent to its successor. A worker that held back checks as its wrapper was not reading is
+     * asked to send them again.
+     */
+    private synchronized void supervise() {
+        if (supervisor.isShutdown()) {
+            return;
+        }
+        try {
+            for (int i = 0; i < workers.size(); i++) {
+                Worker w = workers.get(i);
+                if (w.hasExited()) {
+                    if (System.nanoTime() - restartAt[i] >= 0) {
+                        failures[i] = w.checksDone() > 0 ? 0 : failures[i] + 1;
+                        long delay =
+                                Math.min(
+                                        MAX_RESTART_DELAY_MILLIS,
+                                        SUPERVISE_MILLIS << Math.min(failures[i], 16));
+                        restartAt[i] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+                        logger.warning("Restarting worker " + i + ", whose wrapper exited");
+                        replace(i, w);
+                    }
+                } else if (checkTimeoutMillis > 0 && w.runningMillis() > checkTimeoutMillis) {
+                    w.kill();
+                } else if (w.hasUnsent()) {
+                    w.sendUnsent();
+                } else if (w.load() == 0
+                        && ((recycleAfterChecks > 0 && w.checksDone() >= recycleAfterChecks)
+                                || (workerHeapLimit > 0 && w.heapUsed() > workerHeapLimit)
+                                || (w.isRecording() && w.checksDone() > 0))) {
+                    logger.info(
+                            "Recycling worker "
+                                    + i
+                                    + " after "
+                                    + w.checksDone()
+                                    + " checks, using "
+                                    + (w.heapUsed() >> 20)
+                                    + " MB of heap");
+                    replace(i, w);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Try again on the next round.
+            logger.warning("Failed to supervise the workers: " + e.toString());
+        }
+    }
+
+    /**
+     * Starts a new worker in the slot of another one, and moves the checks queued on the old worker
+     * to the new one. The old worker is retired.
+     *
+     * @param slot the slot of the old worker
+     * @param old the old worker
+     */
+    private void replace(int slot, Worker old) throws IOException {
+        Worker successor = new Worker(slot);
+        workers.set(slot, successor);
+        for (Check c : old.handOver(successor)) {
+            if (c.cancelled) {
+                c.done.complete(false);
+            } else if ((c.timedOut || c.started) && c.retries >= MAX_RETRIES) {
+                // Checking the files again would most likely fail the same way.
+                trace.dumpToLog(logger, c.id, "Giving up check " + c.id + " of " + c.paths());
+                c.done.completeExceptionally(
+                        new CheckAbandonedException("Gave up check " + c.id + " of " + c.paths()));
+            } else {
+                List<Snapshot> fresh = new ArrayList<>(c.sources.size());
+                for (Snapshot s : c.sources) {
+                    Snapshot snapshot = snapshot(s.file);
+                    if (snapshot != null) {
+                        fresh.add(snapshot);
+                    }
+                }
+                // A check that was running may have killed its wrapper, so it only gets a limited
+                // number of retries. The checks queued behind it are not to blame.
+                int retries = c.timedOut || c.started ? c.retries + 1 : c.retries;
+                successor
+                        .submit(fresh, c.background, retries)
+                        .whenComplete(
+                                (published, failure) -> {
+                                    if (failure != null) {
+                                        c.done.completeExceptionally(failure);
+                                    } else {
+                                        c.done.complete(published);
+                                    }
+                                });
+            }
+        }
+        reap(Collections.singletonList(old));
+    }
 
-        new Thread(new Receiver()).start();
+    /**
+     * Waits in the background for retired workers to exit, see {@link Worker#awaitExit}.
+     *
+     * @param retired the retired workers
+     */
+    private static void reap(List<Worker> retired) {
+        Thread reaper =
+                new Thread(
+                        () -> {
+                            for (Worker w : retired) {
+                                w.awaitExit();
+                            }
+                        },
+                        "CheckExecutor-Reaper");
+        reaper.setDaemon(true);
+        reaper.start();
     }
 
     /**
-     * Run type check against source files.
+     * Run type check against source files. Files whose diagnostics are in the {@link
+     * DiagnosticsCache} are published right away. The other files are split into one batch per
+     * worker, and each batch is compiled in a single javac task. A file is sent to the worker that
+     * is already checking it, so that results for the same file arrive in order; the other files
+     * are spread over the workers with the fewest pending files. Files open in the client are
+     * checked as currently edited. Earlier checks of the same files that have not finished yet are
+     * cancelled, as their results would be stale.
      *
      * @param files the files to be checked
+     * @return a future completed with true once the diagnostics of all files are published, or with
+     *     false if some of them have not been checked and may be tried again, or completed
+     *     exceptionally with a {@link CheckAbandonedException} if a check failed for good
      */
-    void compile(List<File> files) {
-        if (files.isEmpty()) {
-            return;
+    CompletableFuture<Boolean> compile(List<File> files) {
+        return compile(files, false);
+    }
+
+    /**
+     * Run type check against source files, see {@link #compile(List)}. A forced check does not look
+     * in the {@link DiagnosticsCache}: the files are checked even if their content has not changed,
+     * as they may depend on files that have, and their cached diagnostics are replaced with the new
+     * ones.
+     *
+     * @param files the files to be checked
+     * @param force whether the files are checked even if their diagnostics are cached
+     * @return a future completed once the files have been checked, see {@link #compile(List)}
+     */
+    CompletableFuture<Boolean> compile(List<File> files, boolean force) {
+        Map<String, List<javax.tools.Diagnostic<?>>> cached = new HashMap<>();
+        List<Snapshot> hits = new ArrayList<>();
+        Map<Worker, List<Snapshot>> batches = new LinkedHashMap<>();
+        CompletableFuture<Boolean> done = CompletableFuture.completedFuture(true);
+        String classes = cache != null && !force ? keys.classDirectories() : null;
+        for (File f : files) {
+            Snapshot snapshot = snapshot(f);
+            if (snapshot == null) {
+                done = CompletableFuture.completedFuture(false);
+                continue;
+            }
+            Worker target = null;
+            for (Worker w : workers) {
+                if (w.isChecking(f)) {
+                    target = w;
+                    break;
+                }
+            }
+            if (target == null && cache != null && !force) {
+                DiagnosticsCache.Entry hit = cached(snapshot, classes);
+                if (hit != null) {
+                    cached.put(snapshot.uri, hit.getDiagnostics());
+                    hits.add(snapshot);
+                    if (hit.getReferences() != null) {
+                        dependencies.update(hit.getReferences());
+                    }
+                    continue;
+                }
+            }
+            if (target == null) {
+                int targetLoad = Integer.MAX_VALUE;
+                for (Worker w : workers) {
+                    int load = w.load() + batches.getOrDefault(w, Collections.emptyList()).size();
+                    if (load < targetLoad) {
+                        target = w;
+                        targetLoad = load;
+                    }
+                }
+            }
+            batches.computeIfAbsent(target, w -> new ArrayList<>()).add(snapshot);
         }
+        if (!cached.isEmpty()) {
+            trace.event(Level.FINE, 0, "publishing cached diagnostics: %s", cached.keySet());
+            publisher.publish(cached, versions(hits));
+        }
+        for (Map.Entry<Worker, List<Snapshot>> batch : batches.entrySet()) {
+            done =
+                    done.thenCombine(
+                            batch.getKey().submit(batch.getValue(), false), Boolean::logicalAnd);
+        }
+        return done;
+    }
+
+    /**
+     * Returns true if a worker has no pending checks, so that a background check can be run without
+     * delaying the checks requested by the client.
+     */
+    boolean hasIdleWorker() {
+        for (Worker w : workers) {
+            if (w.load() == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        StringBuilder sb = new StringBuilder();
+    /**
+     * Run type check against source files in the background. Files open in the client or already
+     * being checked are skipped, as they are checked anyway. Files whose diagnostics are in the
+     * {@link DiagnosticsCache} are published right away. The other files are compiled in a single
+     * javac task on an idle worker. The check gives way to any check requested through {@link
+     * #compile} on the same worker: it is cancelled, and the returned future is completed with
+     * false so that the caller can try again later.
+     *
+     * @param files the files to be checked
+     * @return a future completed with true once the diagnostics of the files are published, or with
+     *     false if the files have not been checked and may be tried again, or completed
+     *     exceptionally with a {@link CheckAbandonedException} if the check failed for good
+     */
+    CompletableFuture<Boolean> compileInBackground(List<File> files) {
+        Worker target = null;
+        for (Worker w : workers) {
+            if (w.load() == 0) {
+                target = w;
+                break;
+            }
+        }
+        if (target == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        Map<String, List<javax.tools.Diagnostic<?>>> cached = new HashMap<>();
+        List<Snapshot> hits = new ArrayList<>();
+        List<Snapshot> batch = new ArrayList<>();
+        String classes = cache != null ? keys.classDirectories() : null;
+        for (File f : files) {
+            if (documents.getText(f) != null || isChecking(f)) {
+                continue;
+            }
+            Snapshot snapshot = snapshot(f);
+            if (snapshot == null) {
+                continue;
+            }
+            DiagnosticsCache.Entry hit = cache != null ? cached(snapshot, classes) : null;
+            if (hit != null) {
+                cached.put(snapshot.uri, hit.getDiagnostics());
+                hits.add(snapshot);
+                if (hit.getReferences() != null) {
+                    dependencies.update(hit.getReferences());
+                }
+            } else {
+                batch.add(snapshot);
+            }
+        }
+        if (!cached.isEmpty()) {
+            publisher.publish(cached, versions(hits));
+        }
+        if (batch.isEmpty()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return target.submit(batch, true);
+    }
+
+    /**
+     * Groups the diagnostics of a check by the file they were reported in. The checked files are
+     * included even without diagnostics, so that the ones fixed since the last check are cleared.
+     * Diagnostics without a source, such as a crash of a checker, concern the whole batch, and are
+     * added to every checked file.
+     *
+     * @param checked the URIs of the checked files
+     * @param diagnostics the diagnostics of the check
+     * @return the diagnostics of each file, by URI
+     */
+    static Map<String, List<javax.tools.Diagnostic<?>>> groupBySource(
+            List<String> checked, List<CFDiagnostic> diagnostics) {
+        Map<String, List<javax.tools.Diagnostic<?>>> grouped = new HashMap<>();
+        for (String uri : checked) {
+            grouped.put(uri, new ArrayList<>());
+        }
+        List<javax.tools.Diagnostic<?>> sourceless = new ArrayList<>();
+        for (CFDiagnostic d : diagnostics) {
+            String s = (String) d.getSource();
+            if (s == null) {
+                sourceless.add(d);
+                continue;
+            }
+            grouped.computeIfAbsent(s, k -> new ArrayList<>()).add(d);
+        }
+        if (!sourceless.isEmpty()) {
+            for (String uri : checked) {
+                grouped.get(uri).addAll(sourceless);
+            }
+        }
+        return grouped;
+    }
+
+    /**
+     * Returns the files in which javac itself, rather than a checker, has reported an error. A
+     * checker reports its errors through the {@link javax.annotation.processing.Messager}.
+     *
+     * @param diagnostics the diagnostics of a check
+     * @return the URIs of the files with javac errors, with {@code null} for an error without a
+     *     file
+     */
+    static Set<String> sourcesWithCompilerErrors(List<CFDiagnostic> diagnostics) {
+        Set<String> broken = new HashSet<>();
+        for (CFDiagnostic d : diagnostics) {
+            if (d.getKind() == javax.tools.Diagnostic.Kind.ERROR
+                    && !CHECKER_ERROR_CODE.equals(d.getCode())) {
+                broken.add((String) d.getSource());
+            }
+        }
+        return broken;
+    }
+
+    /**
+     * Looks up the cached diagnostics of a file, unless a source file it refers to or the class
+     * directories have changed since they were stored.
+     *
+     * @param snapshot the snapshot of the file
+     * @param classes the current fingerprint of the class directories
+     * @return the cached result of the file, or {@code null} if there is no current one
+     */
+    private DiagnosticsCache.Entry cached(Snapshot snapshot, String classes) {
+        DiagnosticsCache.Entry hit = cache.get(snapshot.key);
+        if (hit == null || !hit.isCurrent(classes, CheckExecutor::digest)) {
+            return null;
+        }
+        return hit;
+    }
+
+    /**
+     * Computes the digests of the source files a checked file refers to, as the check read them.
+     * The wrapper read the files on disk, except for the files of the batch with unsaved content.
+     *
+     * @param check the check
+     * @param references the references of the checked file, or {@code null} if it was not analyzed
+     * @return the digest of each source file, by URI, or {@code null} if a file on disk may have
+     *     changed while the check ran
+     */
+    private static Map<String, String> digests(Check check, SourceReferences references) {
+        Map<String, String> digests = new HashMap<>();
+        if (references == null) {
+            return digests;
+        }
+        for (String uri : references.getSources()) {
+            String text = null;
+            for (Snapshot s : check.sources) {
+                if (s.uri.equals(uri)) {
+                    text = s.text;
+                }
+            }
+            if (text != null) {
+                digests.put(uri, SourceKeys.digest(text.getBytes(UTF_8)));
+                continue;
+            }
+            try {
+                long modified = Files.getLastModifiedTime(Paths.get(URI.create(uri))).toMillis();
+                if (modified >= check.sentMillis - TIMESTAMP_RESOLUTION_MILLIS) {
+                    return null;
+                }
+            } catch (IOException | RuntimeException e) {
+                return null;
+            }
+            digests.put(uri, digest(uri));
+        }
+        return digests;
+    }
+
+    /**
+     * Computes the digest of a source file on disk, see {@link SourceKeys#digest}.
+     *
+     * @param uri the URI of the file
+     * @return the digest, or {@code null} if the file cannot be read
+     */
+    private static String digest(String uri) {
         try {
-            for (File f : files) {
-                sb.append(f.getCanonicalPath()).append("\n");
-            }
-            String sbs = sb.toString();
-            logger.info("checking: " + sbs);
-            OutputStreamWriter osw = new OutputStreamWriter(wrapper.getOutputStream(), UTF_8);
-            osw.write(sbs);
-            osw.flush();
+            return SourceKeys.digest(Files.readAllBytes(Paths.get(URI.create(uri))));
+        } catch (NoSuchFileException e) {
+            return SourceKeys.digest(null);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the content that snapshots were taken of.
+     *
+     * @param snapshots the snapshots
+     * @return the version and key of each snapshot, by URI
+     */
+    private static Map<String, SourceVersion> versions(List<Snapshot> snapshots) {
+        Map<String, SourceVersion> versions = new HashMap<>();
+        for (Snapshot s : snapshots) {
+            versions.put(s.uri, new SourceVersion(s.version, s.key));
+        }
+        return versions;
+    }
+
+    /**
+     * Computes the key of the current content of a file with the configuration of this executor,
+     * which changes whenever the diagnostics of the file may change.
+     *
+     * @param f the file, as named by the client
+     * @return the key, or {@code null} if the file cannot be read
+     */
+    String key(File f) {
+        Snapshot snapshot = snapshot(f);
+        return snapshot != null ? snapshot.key : null;
+    }
+
+    /**
+     * Retires this executor after another one has taken over. The pending checks are cancelled, as
+     * their results belong to the old configuration, and the standard input of every wrapper is
+     * closed, so that it answers the cancelled checks and exits. A wrapper that is still running
+     * after {@link #RETIRE_TIMEOUT_MILLIS}, for example in a compilation that does not notice the
+     * cancellation, is destroyed. The method returns right away.
+     */
+    synchronized void retire() {
+        supervisor.shutdownNow();
+        for (Worker w : workers) {
+            w.retire();
+        }
+        reap(workers);
+    }
+
+    /** Returns true if the given file is being checked or queued by any worker. */
+    boolean isChecking(File f) {
+        for (Worker w : workers) {
+            if (w.isChecking(f)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the future of the latest check of a file that is being checked or queued.
+     *
+     * @param f the file, as named by the client
+     * @return the future of the check, see {@link #compile(List)}, or {@code null} if the file is
+     *     not being checked
+     */
+    CompletableFuture<Boolean> whenChecked(File f) {
+        for (Worker w : workers) {
+            CompletableFuture<Boolean> done = w.whenChecked(f);
+            if (done != null) {
+                return done;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes a snapshot of a file to be checked.
+     *
+     * @param f the file, as named by the client
+     * @return the snapshot, or {@code null} if the file cannot be read
+     */
+    private Snapshot snapshot(File f) {
+        try {
+            File canonical = f.getCanonicalFile();
+            DocumentStore.Document doc = documents.get(f);
+            String text = doc != null ? doc.getText() : null;
+            Integer version = doc != null ? doc.getVersion() : null;
+            String key =
+                    text != null
+                            ? keys.key(canonical.getPath(), text)
+                            : keys.key(canonical.getPath(), Files.readAllBytes(canonical.toPath()));
+            return new Snapshot(f, canonical, text, version, key);
         } catch (IOException e) {
-            logger.warning("Failed to check: " + e.toString());
+            logger.warning("Failed to check " + f + ": " + e.toString());
+            return null;
         }
     }
 
     /**
-     * This class runs in the background in a thread and receives the output of JavacWrapper.
-     * Diagnostics received by it will then be sent to the editor.
+     * Signals that a check has been given up because it ran longer than the check timeout, or its
+     * wrapper died while running it, more than {@link #MAX_RETRIES} times. Checking the same files
+     * again would most likely fail the same way.
      */
-    private class Receiver implements Runnable {
-        @Override
-        public void run() {
-            InputStream stdout = wrapper.getInputStream();
-            BufferedReader br = new BufferedReader(new InputStreamReader(stdout, UTF_8));
-            while (true) {
+    static final class CheckAbandonedException extends Exception {
+        /** The version of the serialized form. */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Default constructor for check abandoned exception.
+         *
+         * @param message the check and its files
+         */
+        CheckAbandonedException(String message) {
+            super(message);
+        }
+    }
+
+    /** A file to be checked, with the content it is checked with. */
+    private static class Snapshot {
+        /** The file, as named by the client. */
+        final File file;
+
+        /** The canonical path of the file. */
+        final String path;
+
+        /** The URI of the canonical file, as javac reports it. */
+        final String uri;
+
+        /** The unsaved content of the file, or {@code null} to check the file on disk. */
+        final String text;
+
+        /** The version of the unsaved content, or {@code null} to check the file on disk. */
+        final Integer version;
+
+        /**
+         * The {@link SourceKeys} key of the content, also the key in the {@link DiagnosticsCache}.
+         */
+        final String key;
+
+        /** Default constructor for Snapshot. */
+        Snapshot(File file, File canonical, String text, Integer version, String key) {
+            this.file = file;
+            this.path = canonical.getPath();
+            this.uri = canonical.toPath().toUri().toString();
+            this.text = text;
+            this.version = version;
+            this.key = key;
+        }
+    }
+
+    /** A check of a batch of files that has been sent to a worker. */
+    private static class Check {
+        /** The id of the check. */
+        final long id;
+
+        /** The files being checked. */
+        final List<Snapshot> sources;
+
+        /** Whether the check runs in the background and gives way to requested checks. */
+        final boolean background;
+
+        /**
+         * The fingerprint of the class directories when the check was sent, or {@code null} if the
+         * diagnostics are not cached.
+         */
+        final String classes;
+
+        /** When the check was sent, in milliseconds since the epoch. */
+        final long sentMillis = System.currentTimeMillis();
+
+        /**
+         * Completed with true once the result is published, or false if it is dropped, or
+         * exceptionally with a {@link CheckAbandonedException} if the check is given up.
+         */
+        final CompletableFuture<Boolean> done = new CompletableFuture<>();
+
+        /** The diagnostics received in partial results so far. */
+        final List<CFDiagnostic> received = new ArrayList<>();
+
+        /** Whether the check has been cancelled, so that its result must not be published. */
+        boolean cancelled;
+
+        /**
+         * How many times the check was sent to another worker because it timed out, or its worker
+         * died while running it.
+         */
+        final int retries;
+
+        /** Whether the wrapper has started running the check. */
+        boolean started;
+
+        /** Whether the worker was killed because the check ran longer than the timeout. */
+        boolean timedOut;
+
+        /** Default constructor for Check. */
+        Check(long id, List<Snapshot> sources, boolean background, int retries, String classes) {
+            this.id = id;
+            this.sources = sources;
+            this.background = background;
+            this.retries = retries;
+            this.classes = classes;
+        }
+
+        /** Returns the paths of the files of this check, for logging. */
+        List<String> paths() {
+            List<String> paths = new ArrayList<>(sources.size());
+            for (Snapshot s : sources) {
+                paths.add(s.path);
+            }
+            return paths;
+        }
+
+        /** Returns true if the given file is part of this check. */
+        boolean contains(File f) {
+            for (Snapshot s : sources) {
+                if (s.file.equals(f)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A JavacWrapper process together with the checks it has been asked to run. JavacWrapper writes
+     * exactly one result per check request it reads, in order, so the head of the pending queue is
+     * always the check the next result belongs to. The standard error of the wrapper is passed
+     * through to that of the server. In process, the wrapper is an {@link InProcessWrapper}.
+     */
+    private class Worker {
+        /** The index of this worker, used for logging. */
+        private final int id;
+
+        /** The Process class for run the checks. */
+        private final Process wrapper;
+
+        /** Sends the requests to the standard input of the wrapper. */
+        private final RequestSender stdin;
+
+        /** The checks sent to the wrapper whose diagnostics have not been received yet. */
+        private final Deque<Check> pending;
+
+        /**
+         * The checks whose requests the {@link RequestSender} refused as its queue was full, in
+         * order. They are sent once the wrapper reads again, or handed over to the successor of a
+         * wrapper that does not. While any are held, new checks are held behind them, so that the
+         * wrapper still answers the checks in the order of {@link #pending}.
+         */
+        private final Deque<Check> unsent = new ArrayDeque<>();
+
+        /** Whether this worker has been retired, so that it takes no more checks. */
+        private boolean retired;
+
+        /** Whether the output of the wrapper has ended, as it exited or was killed. */
+        private boolean exited;
+
+        /** Whether the wrapper has been killed by the supervisor. */
+        private boolean killed;
+
+        /**
+         * The worker that took over after the wrapper exited, which is sent the checks submitted to
+         * this worker since, or {@code null}.
+         */
+        private Worker successor;
+
+        /** When the oldest pending check started running, in {@link System#nanoTime} terms. */
+        private long runningSince;
+
+        /** The number of checks the wrapper has answered. */
+        private int checksDone;
+
+        /** The heap used by the wrapper after its last garbage collection, in bytes. */
+        private long heapUsed;
+
+        /**
+         * The file the wrapper records the class data sharing archive to as it exits, or {@code
+         * null}.
+         */
+        private final Path recording;
+
+        /** Starts the wrapper process and its receiver thread. */
+        Worker(int id) throws IOException {
+            this.id = id;
+            List<String> command = new ArrayList<>(options);
+            if (sharedArchive != null) {
+                recording = sharedArchive.record();
+                command.addAll(1, sharedArchive.options(recording));
+            } else {
+                recording = null;
+            }
+            this.wrapper =
+                    inProcess
+                            ? new InProcessWrapper(command, "JavacWrapper-" + id)
+                            : new ProcessBuilder(command)
+                                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                                    .start();
+            this.stdin =
+                    new RequestSender(
+                            new WireFormat.Writer(wrapper.getOutputStream()),
+                            "CheckExecutor-Sender-" + id);
+            this.pending = new ArrayDeque<>();
+            Thread receiver = new Thread(new Receiver(), "CheckExecutor-Receiver-" + id);
+            receiver.setDaemon(true);
+            receiver.start();
+        }
+
+        /** Returns the number of files sent to this worker that have not been checked yet. */
+        synchronized int load() {
+            int load = 0;
+            for (Check c : queued()) {
+                load += c.sources.size();
+            }
+            return load;
+        }
+
+        /** Returns true if the given file is being checked or queued by this worker. */
+        synchronized boolean isChecking(File f) {
+            for (Check c : queued()) {
+                if (c.contains(f)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the future of the latest check of the given file that has not been cancelled, or
+         * {@code null} if this worker is not checking the file.
+         */
+        synchronized CompletableFuture<Boolean> whenChecked(File f) {
+            Iterator<Check> it = queued().descendingIterator();
+            while (it.hasNext()) {
+                Check c = it.next();
+                if (!c.cancelled && c.contains(f)) {
+                    return c.done;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Sends a batch of files to the wrapper. Pending checks of any of these files are
+         * cancelled, and the other files of those checks are added to the batch so that they are
+         * still checked. A batch that is not itself a background check also cancels all pending
+         * background checks, whose files are left to the caller of {@link #compileInBackground}.
+         * Checks are only cancelled once the request of the batch has been offered to the wrapper.
+         * A request that the {@link RequestSender} refuses is held back, see {@link #unsent}.
+         *
+         * @param files the files to be checked
+         * @param background whether the batch is a background check
+         * @return a future completed with true once the diagnostics of the batch are published, or
+         *     with false if the batch is not checked, or exceptionally with a {@link
+         *     CheckAbandonedException} if it is given up
+         */
+        CompletableFuture<Boolean> submit(List<Snapshot> files, boolean background) {
+            return submit(files, background, 0);
+        }
+
+        /**
+         * Sends a batch of files to the wrapper, see {@link #submit(List, boolean)}. While the
+         * wrapper has exited and no successor has taken over, the batch is only queued.
+         *
+         * @param files the files to be checked
+         * @param background whether the batch is a background check
+         * @param retries how many times the batch was running on a worker that died, see {@link
+         *     Check#retries}
+         * @return a future completed with true once the diagnostics of the batch are published, or
+         *     with false if the batch is not checked, or exceptionally with a {@link
+         *     CheckAbandonedException} if it is given up
+         */
+        synchronized CompletableFuture<Boolean> submit(
+                List<Snapshot> files, boolean background, int retries) {
+            if (successor != null) {
+                return successor.submit(files, background, retries);
+            }
+            if (retired) {
+                return CompletableFuture.completedFuture(false);
+            }
+            Map<File, Snapshot> batch = new LinkedHashMap<>();
+            for (Snapshot s : files) {
+                batch.put(s.file, s);
+            }
+            List<Check> yielding = new ArrayList<>();
+            List<Check> superseded = new ArrayList<>();
+            for (Check c : queued()) {
+                if (c.cancelled) {
+                    continue;
+                }
+                if (!background && c.background) {
+                    yielding.add(c);
+                    continue;
+                }
+                boolean overlaps = false;
+                for (File f : batch.keySet()) {
+                    overlaps |= c.contains(f);
+                }
+                if (!overlaps) {
+                    continue;
+                }
+                superseded.add(c);
+                for (Snapshot s : c.sources) {
+                    if (!batch.containsKey(s.file)) {
+                        Snapshot fresh = snapshot(s.file);
+                        if (fresh != null) {
+                            batch.put(s.file, fresh);
+                        }
+                    }
+                }
+            }
+            if (batch.isEmpty()) {
+                return CompletableFuture.completedFuture(false);
+            }
+
+            List<Snapshot> checked = new ArrayList<>(batch.values());
+            List<CheckRequest.Source> sources = new ArrayList<>(checked.size());
+            List<String> uris = new ArrayList<>(checked.size());
+            for (Snapshot s : checked) {
+                sources.add(new CheckRequest.Source(s.path, s.text));
+                uris.add(s.uri);
+            }
+            Check check =
+                    new Check(
+                            nextCheckId.incrementAndGet(),
+                            checked,
+                            background,
+                            retries,
+                            cache != null ? keys.classDirectories() : null);
+            trace.event(Level.FINE, check.id, "checking on worker %s: %s", id, uris);
+            unsent.addLast(check);
+            sendUnsent();
+            for (Check c : yielding) {
+                trace.event(Level.FINE, c.id, "yielding on worker %s", id);
+                cancel(c);
+            }
+            for (Check c : superseded) {
+                trace.event(Level.FINE, c.id, "cancelling on worker %s", id);
+                cancel(c);
+            }
+            return check.done;
+        }
+
+        /**
+         * Sends the held checks to the wrapper in order, until the {@link RequestSender} refuses
+         * one. While the wrapper has exited, the checks are only queued, to be handed over to its
+         * successor.
+         */
+        synchronized void sendUnsent() {
+            while (!unsent.isEmpty()) {
+                Check check = unsent.peekFirst();
+                List<CheckRequest.Source> sources = new ArrayList<>(check.sources.size());
+                for (Snapshot s : check.sources) {
+                    sources.add(new CheckRequest.Source(s.path, s.text));
+                }
+                if (!exited && !stdin.send(new CheckRequest(check.id, sources))) {
+                    trace.event(
+                            Level.FINE, check.id, "holding on worker %s, whose input is full", id);
+                    return;
+                }
+                unsent.removeFirst();
+                if (pending.isEmpty()) {
+                    check.started = true;
+                    runningSince = System.nanoTime();
+                }
+                pending.addLast(check);
+            }
+        }
+
+        /** Returns true if checks are held back as the input of the wrapper was full. */
+        synchronized boolean hasUnsent() {
+            return !unsent.isEmpty();
+        }
+
+        /** Returns the checks sent to the wrapper, followed by the checks held back, in order. */
+        private Deque<Check> queued() {
+            Deque<Check> queued = new ArrayDeque<>(pending);
+            queued.addAll(unsent);
+            return queued;
+        }
+
+        /**
+         * Cancels a pending check, whose result is then dropped. The wrapper is asked to stop the
+         * check, or to skip it if it has not started it yet. A check that is held back is dropped
+         * right away.
+         *
+         * @param c the check
+         */
+        private void cancel(Check c) {
+            c.cancelled = true;
+            if (unsent.remove(c)) {
+                c.done.complete(false);
+                return;
+            }
+            try {
+                write(CheckRequest.cancel(c.id));
+            } catch (IOException e) {
+                // The wrapper is being replaced, and its cancelled checks are dropped.
+            }
+        }
+
+        /** Cancels the pending checks and closes the standard input of the wrapper. */
+        synchronized void retire() {
+            retired = true;
+            for (Check c : unsent) {
+                c.cancelled = true;
+                c.done.complete(false);
+            }
+            unsent.clear();
+            if (exited) {
+                // No successor will answer the checks.
+                for (Check c : pending) {
+                    c.done.complete(false);
+                }
+                pending.clear();
+                return;
+            }
+            for (Check c : pending) {
+                if (!c.cancelled) {
+                    cancel(c);
+                }
+            }
+            stdin.close();
+        }
+
+        /** Waits for a retired wrapper to exit, and destroys it if it does not in time. */
+        void awaitExit() {
+            try {
+                if (!wrapper.waitFor(RETIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    logger.warning("Destroying wrapper " + id + ", which did not exit in time");
+                    wrapper.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                wrapper.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Records that the output of the wrapper has ended. The checks of a retired worker are
+         * dropped, as they will never be answered; the others are kept for the successor.
+         */
+        synchronized void outputEnded() {
+            exited = true;
+            if (retired) {
+                for (Check c : pending) {
+                    c.done.complete(false);
+                }
+                pending.clear();
+            }
+        }
+
+        /**
+         * Returns true if the wrapper records the class data sharing archive. Such a wrapper is
+         * recycled after its first check, so that the archive holds the classes of a check and is
+         * ready early in the session.
+         */
+        boolean isRecording() {
+            return recording != null;
+        }
+
+        /**
+         * Waits for the wrapper that records the class data sharing archive to exit, and installs
+         * the archive.
+         */
+        private void installArchive() {
+            try {
+                boolean exited = wrapper.waitFor(RETIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                sharedArchive.recorded(recording, exited && wrapper.exitValue() == 0);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Returns true if the wrapper has exited and no successor has taken over yet. */
+        synchronized boolean hasExited() {
+            return exited && successor == null && !retired;
+        }
+
+        /**
+         * Kills the wrapper because its running check took too long. The worker is replaced once
+         * its output has ended.
+         */
+        synchronized void kill() {
+            Check running = pending.peekFirst();
+            if (running == null || exited) {
+                return;
+            }
+            logger.warning(
+                    "Killing worker "
+                            + id
+                            + ", whose check "
+                            + running.id
+                            + " has run for "
+                            + runningMillis()
+                            + " ms: "
+                            + running.paths());
+            running.timedOut = true;
+            killed = true;
+            wrapper.destroyForcibly();
+        }
+
+        /**
+         * Hands this worker over to its successor, which is sent all checks submitted from now on.
+         *
+         * @param successor the worker taking over
+         * @return the checks that this worker has not answered
+         */
+        synchronized List<Check> handOver(Worker successor) {
+            this.successor = successor;
+            retired = true;
+            List<Check> unanswered = new ArrayList<>(queued());
+            pending.clear();
+            unsent.clear();
+            stdin.closeNow();
+            return unanswered;
+        }
+
+        /** Returns for how long the oldest pending check has been running, or 0 if none. */
+        synchronized long runningMillis() {
+            if (pending.isEmpty()) {
+                return 0;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - runningSince);
+        }
+
+        /** Returns the number of checks the wrapper has answered. */
+        synchronized int checksDone() {
+            return checksDone;
+        }
+
+        /** Returns the heap used by the wrapper after its last garbage collection, in bytes. */
+        synchronized long heapUsed() {
+            return heapUsed;
+        }
+
+        /**
+         * Queues a request for the wrapper, unless it has exited; its successor is sent it then.
+         * The request is written by the {@link RequestSender}, so this method does not wait.
+         */
+        private void write(CheckRequest request) throws IOException {
+            if (!exited && !stdin.send(request)) {
+                throw new IOException("Too many requests waiting for wrapper " + id);
+            }
+        }
+
+        /** Returns true if the wrapper has been retired or killed, so that its output ends. */
+        synchronized boolean isStopping() {
+            return retired || killed;
+        }
+
+        /** Returns the oldest pending check, which is the one running, or {@code null}. */
+        synchronized Check running() {
+            return pending.peekFirst();
+        }
+
+        /**
+         * Marks the oldest pending check as finished, and the next one as running.
+         *
+         * @param heapUsed the heap used by the wrapper as reported with the result, or 0
+         * @return the finished check
+         */
+        synchronized Check finished(long heapUsed) {
+            checksDone++;
+            if (heapUsed > 0) {
+                this.heapUsed = heapUsed;
+            }
+            Check finished = pending.pollFirst();
+            Check next = pending.peekFirst();
+            if (next != null) {
+                next.started = true;
+                runningSince = System.nanoTime();
+            }
+            // The wrapper reads its input again.
+            sendUnsent();
+            return finished;
+        }
+
+        /**
+         * This class runs in the background in a thread and receives the output of JavacWrapper.
+         * Diagnostics received by it will then be sent to the editor.
+         */
+        private class Receiver implements Runnable {
+            @Override
+            public void run() {
                 try {
-                    String diag = br.readLine();
-                    logger.info("Got from wrapper: " + diag);
-                    if (diag == null) {
-                        logger.warning("Ignoring null return from wrapper");
+                    receive(new WireFormat.Reader(wrapper.getInputStream()));
+                } catch (IOException | RuntimeException e) {
+                    // The stream cannot be resynchronized after a broken frame. The stream of a
+                    // destroyed wrapper is closed.
+                    if (!isStopping()) {
+                        logger.warning("Failed to read the output of wrapper: " + e.toString());
+                    }
+                } finally {
+                    // Whatever ended the output, the supervisor must learn that the wrapper is
+                    // gone, so that it replaces the wrapper and hands over its checks.
+                    outputEnded();
+                    if (recording != null) {
+                        installArchive();
+                    }
+                }
+            }
+
+            /**
+             * Receives the results of the wrapper until it closes its output.
+             *
+             * @param stdout the reader of the output of the wrapper
+             */
+            private void receive(WireFormat.Reader stdout) throws IOException {
+                while (true) {
+                    CFDiagnosticList diags = stdout.readResult();
+                    if (diags == null) {
+                        if (!isStopping()) {
+                            logger.warning("Wrapper " + id + " closed its output");
+                        }
+                        return;
+                    }
+                    if (diags.isPartial()) {
+                        receivePartial(diags);
                         continue;
                     }
-                    CFDiagnosticList diags = gson.fromJson(diag, CFDiagnosticList.class);
-                    Map<String, List<javax.tools.Diagnostic<?>>> ret = new HashMap<>();
-                    for (CFDiagnostic d : diags.getDiagnostics()) {
-                        String s = (String) d.getSource();
-                        if (!ret.containsKey(s)) {
-                            ret.put(s, new ArrayList<>());
+                    trace.event(
+                            Level.FINE,
+                            diags.getId(),
+                            "result from wrapper %s: %s diagnostics, %s timings",
+                            id,
+                            diags.getDiagnostics().size(),
+                            diags.getTimings().size());
+                    Check checked = finished(diags.getHeapUsed());
+                    if (checked == null || checked.id != diags.getId()) {
+                        logger.warning("Ignoring unexpected result of check " + diags.getId());
+                        if (checked != null) {
+                            checked.done.complete(false);
+                        }
+                        continue;
+                    }
+                    synchronized (Worker.this) {
+                        if (diags.isCancelled() || checked.cancelled) {
+                            trace.event(Level.FINE, checked.id, "dropping cancelled result");
+                            checked.done.complete(false);
+                            continue;
+                        }
+                    }
+                    List<CFDiagnostic> all = checked.received;
+                    all.addAll(diags.getDiagnostics());
+                    List<String> uris = new ArrayList<>(checked.sources.size());
+                    for (Snapshot source : checked.sources) {
+                        uris.add(source.uri);
+                    }
+                    Map<String, List<javax.tools.Diagnostic<?>>> ret = groupBySource(uris, all);
+                    Map<String, SourceReferences> references = new HashMap<>();
+                    for (SourceReferences r : diags.getReferences()) {
+                        references.put(r.getFileUri(), r);
+                        dependencies.update(r);
+                    }
+                    if (cache != null) {
+                        Set<String> broken = sourcesWithCompilerErrors(all);
+                        for (Snapshot source : checked.sources) {
+                            // The Checker Framework does not type-check a batch in which javac
+                            // has reported an error, so the diagnostics of a file batched with
+                            // a broken one are incomplete, and must not be served later.
+                            if (!broken.isEmpty()
+                                    && !broken.equals(Collections.singleton(source.uri))) {
+                                trace.event(
+                                        Level.FINE,
+                                        checked.id,
+                                        "not caching %s, as javac reported errors in %s",
+                                        source.uri,
+                                        broken);
+                                continue;
+                            }
+                            SourceReferences refs = references.get(source.uri);
+                            Map<String, String> digests = digests(checked, refs);
+                            if (digests == null || checked.classes == null) {
+                                trace.event(
+                                        Level.FINE,
+                                        checked.id,
+                                        "not caching %s, as its dependencies changed",
+                                        source.uri);
+                                continue;
+                            }
+                            cache.put(
+                                    source.key,
+                                    ret.get(source.uri),
+                                    refs,
+                                    digests,
+                                    checked.classes);
                         }
-                        ret.get(s).add(d);
                     }
 
-                    publisher.publish(ret);
-                } catch (IOException e) {
-                    logger.warning("Failed to read the output of wrapper: " + e.toString());
+                    publisher.publish(ret, versions(checked.sources));
+                    if (!diags.getTimings().isEmpty()) {
+                        publisher.publishTimings(diags.getTimings());
+                    }
+                    checked.done.complete(true);
+                }
+            }
+
+            /**
+             * Adds a partial result to the running check, and publishes the diagnostics received so
+             * far for the files it concerns if diagnostics are streamed.
+             *
+             * @param diags the partial result
+             */
+            private void receivePartial(CFDiagnosticList diags) {
+                trace.event(
+                        Level.FINER,
+                        diags.getId(),
+                        "partial result: %s diagnostics",
+                        diags.getDiagnostics().size());
+                Check running = running();
+                synchronized (Worker.this) {
+                    if (running == null || running.id != diags.getId() || running.cancelled) {
+                        return;
+                    }
+                }
+                running.received.addAll(diags.getDiagnostics());
+                if (!streamDiagnostics) {
+                    return;
+                }
+                Map<String, List<javax.tools.Diagnostic<?>>> ret = new HashMap<>();
+                for (CFDiagnostic d : diags.getDiagnostics()) {
+                    if (d.getSource() != null) {
+                        ret.put((String) d.getSource(), new ArrayList<>());
+                    }
+                }
+                for (CFDiagnostic d : running.received) {
+                    List<javax.tools.Diagnostic<?>> forSource = ret.get(d.getSource());
+                    if (forSource != null) {
+                        forSource.add(d);
+                    }
                 }
+                publisher.publishPartial(ret, versions(running.sources));
             }
         }
     }
@@ -0,0 +1,91 @@
+package org.checkerframework.languageserver;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A check request sent from {@link CheckExecutor} to {@link JavacWrapper} in the {@link
+ * WireFormat}.
+ *
+ * <p>A request either asks for a check, or, if {@link #isCancel()} is true, cancels the earlier
+ * check with the same id. A cancelled check is still answered, with a {@link CFDiagnosticList} that
+ * is marked as cancelled.
+ *
+ * <p>All sources of a check are compiled together in a single javac task, so that the cost of
+ * setting up the compiler and loading the classpath is paid once per batch.
+ */
+public class CheckRequest {
+    /** The id of the check, which is repeated in the result. */
+    private final long id;
+
+    /** Whether this request cancels the check with the same id. */
+    private final boolean cancel;
+
+    /** The source files to be compiled together. */
+    private final List<Source> sources;
+
+    /** Default constructor for CheckRequest. */
+    public CheckRequest(long id, List<Source> sources) {
+        this(id, false, sources);
+    }
+
+    /** Constructor for all fields of CheckRequest. */
+    private CheckRequest(long id, boolean cancel, List<Source> sources) {
+        this.id = id;
+        this.cancel = cancel;
+        this.sources = sources;
+    }
+
+    /**
+     * Creates a request that cancels an earlier check.
+     *
+     * @param id the id of the check to be cancelled
+     * @return the cancellation request
+     */
+    public static CheckRequest cancel(long id) {
+        return new CheckRequest(id, true, Collections.emptyList());
+    }
+
+    /** Getter for the id of the check. */
+    public long getId() {
+        return id;
+    }
+
+    /** Returns true if this request cancels the check with the same id. */
+    public boolean isCancel() {
+        return cancel;
+    }
+
+    /** Getter for the source files to be compiled. */
+    public List<Source> getSources() {
+        return sources;
+    }
+
+    /** A source file to be compiled. */
+    public static class Source {
+        /** The path of the source file. */
+        private final String path;
+
+        /**
+         * The content of the source file as currently edited in the client, or {@code null} if the
+         * file is to be read from disk.
+         */
+        private final String text;
+
+        /** Default constructor for Source. */
+        public Source(String path, String text) {
+            this.path = path;
+            this.text = text;
+        }
+
+        /** Getter for the path of the source file. */
+        public String getPath() {
+            return path;
+        }
+
+        /** Getter for the content of the source file; {@code null} means the file on disk. */
+        public String getText() {
+            return text;
+        }
+    }
+}
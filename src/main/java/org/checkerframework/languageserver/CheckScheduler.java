@@ -0,0 +1,176 @@
+package org.checkerframework.languageserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Debounces check requests before they reach {@link CheckExecutor#compile}. Requests are collected
+ * until no new request has arrived for a quiet window, and then all files requested in the meantime
+ * are checked as one batch. A file requested several times within the window is checked only once,
+ * and since {@link CheckExecutor} reads the content of a file when the batch is sent, it is the
+ * newest version that gets checked. So that continued edits cannot postpone a check forever, a
+ * batch is sent at the latest {@link #MAX_WAIT_WINDOWS} quiet windows after its first request.
+ *
+ * <p>A file can be requested as forced, so that it is checked even if its diagnostics are cached;
+ * see {@link CheckExecutor#compile(List, boolean)}. The forced files of a batch are sent apart from
+ * the others, and a file requested both ways is forced.
+ */
+class CheckScheduler {
+    /** The number of quiet windows after which pending files are checked even if requests go on. */
+    static final int MAX_WAIT_WINDOWS = 4;
+
+    /**
+     * Receives the batches of files to be checked, and whether they are forced, and returns a
+     * future completed like that of {@link CheckExecutor#compile(List, boolean)}.
+     */
+    private final BiFunction<List<File>, Boolean, CompletableFuture<Boolean>> sink;
+
+    /** The thread that sends the batches once the quiet window has passed. */
+    private final ScheduledExecutorService timer;
+
+    /** The files requested since the last batch, in the order they were first requested. */
+    private final Set<File> pending = new LinkedHashSet<>();
+
+    /** The pending files that have been requested as forced. */
+    private final Set<File> forced = new HashSet<>();
+
+    /** Completed once the pending files have been checked, see {@link #schedule(List)}. */
+    private CompletableFuture<Boolean> checked = new CompletableFuture<>();
+
+    /** The scheduled sending of the pending files, or {@code null} if nothing is pending. */
+    private ScheduledFuture<?> flush;
+
+    /**
+     * The {@link System#nanoTime()} by which the pending files are sent even if requests keep
+     * arriving, set when the first of them is requested.
+     */
+    private long deadlineNanos;
+
+    /** The time without new requests after which the pending files are checked. */
+    private volatile long quietMillis;
+
+    /**
+     * Default constructor for check scheduler.
+     *
+     * @param sink receives the batches of files to be checked, and whether they are forced, and
+     *     returns a future completed once they have been checked
+     * @param quietMillis the quiet window in milliseconds
+     */
+    CheckScheduler(
+            BiFunction<List<File>, Boolean, CompletableFuture<Boolean>> sink, long quietMillis) {
+        this.sink = sink;
+        this.quietMillis = quietMillis;
+        this.timer =
+                Executors.newSingleThreadScheduledExecutor(
+                        r -> {
+                            Thread t = new Thread(r, "CheckScheduler");
+                            t.setDaemon(true);
+                            return t;
+                        });
+    }
+
+    /**
+     * Setter for the quiet window. It applies to requests made from now on.
+     *
+     * @param quietMillis the quiet window in milliseconds
+     */
+    void setQuietMillis(long quietMillis) {
+        this.quietMillis = quietMillis;
+    }
+
+    /**
+     * Requests a check of the given files, postponing the pending batch until the quiet window has
+     * passed again, but not beyond {@link #MAX_WAIT_WINDOWS} quiet windows after the first pending
+     * request.
+     *
+     * @param files the files to be checked
+     * @return a future completed with true once the diagnostics of the pending files are published,
+     *     or with false, or exceptionally, if some of them have not been checked
+     */
+    CompletableFuture<Boolean> schedule(List<File> files) {
+        return schedule(files, false);
+    }
+
+    /**
+     * Requests a check of the given files, see {@link #schedule(List)}.
+     *
+     * @param files the files to be checked
+     * @param force whether the files are checked even if their diagnostics are cached
+     * @return a future completed once the pending files have been checked, see {@link
+     *     #schedule(List)}
+     */
+    synchronized CompletableFuture<Boolean> schedule(List<File> files, boolean force) {
+        long now = System.nanoTime();
+        if (pending.isEmpty()) {
+            deadlineNanos = now + TimeUnit.MILLISECONDS.toNanos(MAX_WAIT_WINDOWS * quietMillis);
+        }
+        pending.addAll(files);
+        if (force) {
+            forced.addAll(files);
+        }
+        if (flush != null) {
+            flush.cancel(false);
+        }
+        long delay = Math.min(TimeUnit.MILLISECONDS.toNanos(quietMillis), deadlineNanos - now);
+        flush = timer.schedule(this::flush, Math.max(0, delay), TimeUnit.NANOSECONDS);
+        return checked;
+    }
+
+    /** Returns true if files have been requested that have not been sent yet. */
+    synchronized boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Returns the future completed once the given file has been checked, if it has been requested
+     * and not sent yet.
+     *
+     * @param file the file
+     * @return the future, see {@link #schedule(List)}, or {@code null} if the file is not pending
+     */
+    synchronized CompletableFuture<Boolean> whenChecked(File file) {
+        return pending.contains(file) ? checked : null;
+    }
+
+    /** Sends all pending files as one batch, and the forced ones as another. */
+    private void flush() {
+        List<File> batch = new ArrayList<>();
+        List<File> forcedBatch = new ArrayList<>();
+        CompletableFuture<Boolean> done;
+        synchronized (this) {
+            for (File f : pending) {
+                (forced.contains(f) ? forcedBatch : batch).add(f);
+            }
+            pending.clear();
+            forced.clear();
+            flush = null;
+            done = checked;
+            checked = new CompletableFuture<>();
+        }
+        CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
+        if (!batch.isEmpty()) {
+            result = sink.apply(batch, false);
+        }
+        if (!forcedBatch.isEmpty()) {
+            result = result.thenCombine(sink.apply(forcedBatch, true), Boolean::logicalAnd);
+        }
+        result.whenComplete(
+                (published, failure) -> {
+                    if (failure != null) {
+                        done.completeExceptionally(failure);
+                    } else {
+                        done.complete(published);
+                    }
+                });
+    }
+}
@@ -0,0 +1,74 @@
+package org.checkerframework.languageserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Which source files refer to which, as recorded by {@link JavacWrapper} for every checked file.
+ * Files are identified by their URI as javac reports it. A file depends on another if it refers to
+ * a top-level type the other file declares.
+ *
+ * <p>The graph is updated by the receiver threads of {@link CheckExecutor} and read by {@link
+ * CFTextDocumentService}, so all methods are synchronized.
+ */
+class DependencyGraph {
+    /** The references of each file. */
+    private final Map<String, SourceReferences> files = new HashMap<>();
+
+    /** The files that refer to each top-level type. */
+    private final Map<String, Set<String>> referencedBy = new HashMap<>();
+
+    /**
+     * Records the references of a file, replacing those recorded when it was checked before.
+     *
+     * @param references the references of the file
+     */
+    synchronized void update(SourceReferences references) {
+        String uri = references.getFileUri();
+        SourceReferences old = files.put(uri, references);
+        if (old != null) {
+            for (String type : old.getReferenced()) {
+                Set<String> users = referencedBy.get(type);
+                if (users != null) {
+                    users.remove(uri);
+                }
+            }
+        }
+        for (String type : references.getReferenced()) {
+            referencedBy.computeIfAbsent(type, t -> new HashSet<>()).add(uri);
+        }
+    }
+
+    /**
+     * Returns the files that depend on a file, directly or transitively, nearest first.
+     *
+     * @param uri the URI of the file
+     * @return the URIs of the dependents, not including the file itself
+     */
+    synchronized List<String> dependents(String uri) {
+        Set<String> result = new LinkedHashSet<>();
+        Deque<String> queue = new ArrayDeque<>(Collections.singletonList(uri));
+        while (!queue.isEmpty()) {
+            SourceReferences current = files.get(queue.removeFirst());
+            if (current == null) {
+                continue;
+            }
+            for (String type : current.getDeclared()) {
+                for (String user : referencedBy.getOrDefault(type, Collections.emptySet())) {
+                    if (!user.equals(uri) && result.add(user)) {
+                        queue.addLast(user);
+                    }
+                }
+            }
+        }
+        return new ArrayList<>(result);
+    }
+}
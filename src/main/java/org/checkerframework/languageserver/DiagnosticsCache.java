@@ -0,0 +1,221 @@
+package org.checkerframework.languageserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * A persistent cache of the diagnostics of single files, so that files whose content and
+ * configuration have not changed since they were last checked, possibly by an earlier run of the
+ * language server, are not checked again.
+ *
+ * <p>An entry is keyed by the {@link SourceKeys} key of the file, a hash of the configuration, the
+ * path of the file and its content. Each entry holds all diagnostics of the file, including the
+ * {@code lsp.type.information} messages the hover information is built from, and the references of
+ * the file for the {@link DependencyGraph}.
+ *
+ * <p>Diagnostics of a file can also depend on other source files and on class directories, which
+ * are not part of the key. An entry therefore also holds the {@link SourceKeys#digest digest} of
+ * every source file the file refers to and the {@link SourceKeys#classDirectories fingerprint} of
+ * the class directories, as they were when the file was checked, and {@link CheckExecutor} only
+ * uses an entry whose dependencies are unchanged.
+ */
+class DiagnosticsCache {
+    /** The logger for issuing information about the cache. */
+    private static final Logger logger = Logger.getLogger(DiagnosticsCache.class.getName());
+
+    /** Entries that have not been used for this long are deleted. */
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * Temporary files older than this are left over from a server that stopped while writing an
+     * entry, and are deleted. Younger ones may still be written by another server.
+     */
+    private static final long TEMPORARY_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /** The file name extension of entries. */
+    private static final String EXTENSION = ".json";
+
+    /** The file name extension of entries being written. */
+    private static final String TEMPORARY_EXTENSION = ".tmp";
+
+    /** The directory holding the entries. */
+    private final Path directory;
+
+    /** The gson for storing entries. */
+    private final Gson gson;
+
+    /**
+     * Default constructor for the diagnostics cache. Creates the directory if needed and deletes
+     * entries that have not been used for a long time, as well as entries that were left half
+     * written.
+     *
+     * @param directory the directory holding the entries
+     */
+    DiagnosticsCache(Path directory) throws IOException {
+        this.directory = directory;
+        this.gson = new Gson();
+        Files.createDirectories(directory);
+        prune(EXTENSION, MAX_AGE_MILLIS);
+        prune(TEMPORARY_EXTENSION, TEMPORARY_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * Looks up the diagnostics of a file.
+     *
+     * @param key the key of the file
+     * @return the cached result of the file, or {@code null} if it is not cached
+     */
+    Entry get(String key) {
+        Path entry = directory.resolve(key + EXTENSION);
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try {
+            Entry result = gson.fromJson(new String(Files.readAllBytes(entry), UTF_8), Entry.class);
+            if (result == null || result.diagnostics == null) {
+                return null;
+            }
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return result;
+        } catch (IOException | JsonParseException e) {
+            logger.warning("Failed to read cached diagnostics " + entry + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the diagnostics of a file.
+     *
+     * @param key the key of the file
+     * @param diagnostics the diagnostics of the file, as received from {@link JavacWrapper}
+     * @param references the references of the file, or {@code null} if it was not analyzed
+     * @param sources the digest of each source file the file refers to, by URI
+     * @param classes the fingerprint of the class directories the file was checked with
+     */
+    void put(
+            String key,
+            List<javax.tools.Diagnostic<?>> diagnostics,
+            SourceReferences references,
+            Map<String, String> sources,
+            String classes) {
+        List<CFDiagnostic> diags = new ArrayList<>(diagnostics.size());
+        for (javax.tools.Diagnostic<?> d : diagnostics) {
+            diags.add((CFDiagnostic) d);
+        }
+        Path entry = directory.resolve(key + EXTENSION);
+        try {
+            // Write to a temporary file first, so that a concurrent reader never sees half an
+            // entry.
+            Path tmp = Files.createTempFile(directory, key, TEMPORARY_EXTENSION);
+            Files.write(
+                    tmp,
+                    gson.toJson(new Entry(diags, references, sources, classes)).getBytes(UTF_8));
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warning("Failed to cache diagnostics " + entry + ": " + e.toString());
+        }
+    }
+
+    /**
+     * Deletes the files with the given extension that have not been modified for the given time.
+     *
+     * @param extension the file name extension
+     * @param maxAgeMillis the age in milliseconds beyond which files are deleted
+     */
+    private void prune(String extension, long maxAgeMillis) {
+        long oldest = System.currentTimeMillis() - maxAgeMillis;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + extension)) {
+            for (Path entry : entries) {
+                if (Files.getLastModifiedTime(entry).toMillis() < oldest) {
+                    Files.deleteIfExists(entry);
+                }
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to prune the diagnostics cache: " + e.toString());
+        }
+    }
+
+    /** The cached result of checking a file. */
+    static class Entry {
+        /** The diagnostics of the file. */
+        private final List<CFDiagnostic> diagnostics;
+
+        /** The references of the file, or {@code null} if it was not analyzed. */
+        private final SourceReferences references;
+
+        /** The digest of each source file the file refers to, by URI. */
+        private final Map<String, String> sources;
+
+        /** The fingerprint of the class directories the file was checked with. */
+        private final String classes;
+
+        /** Default constructor for Entry. */
+        Entry(
+                List<CFDiagnostic> diagnostics,
+                SourceReferences references,
+                Map<String, String> sources,
+                String classes) {
+            this.diagnostics = diagnostics;
+            this.references = references;
+            this.sources = sources;
+            this.classes = classes;
+        }
+
+        /** Getter for the diagnostics of the file. */
+        List<javax.tools.Diagnostic<?>> getDiagnostics() {
+            return new ArrayList<>(diagnostics);
+        }
+
+        /** Getter for the references of the file; {@code null} if it was not analyzed. */
+        SourceReferences getReferences() {
+            return references;
+        }
+
+        /** Getter for the digest of each source file the file refers to, by URI. */
+        Map<String, String> getSources() {
+            return sources;
+        }
+
+        /** Getter for the fingerprint of the class directories the file was checked with. */
+        String getClasses() {
+            return classes;
+        }
+
+        /**
+         * Returns true if the entry was stored with the given class directories, and the source
+         * files the file refers to still have the stored digests. An entry stored before the
+         * dependencies were recorded is never current.
+         *
+         * @param currentClasses the current fingerprint of the class directories, or {@code null}
+         *     if it is unknown
+         * @param digest computes the current digest of a source file from its URI
+         * @return true if the entry may be used
+         */
+        boolean isCurrent(String currentClasses, Function<String, String> digest) {
+            if (sources == null || currentClasses == null || !currentClasses.equals(classes)) {
+                return false;
+            }
+            for (Map.Entry<String, String> source : sources.entrySet()) {
+                if (!source.getValue().equals(digest.apply(source.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
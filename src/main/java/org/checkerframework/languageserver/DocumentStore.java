@@ -0,0 +1,96 @@
+package org.checkerframework.languageserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The content of the documents that are open in the client. Since the client advertises {@link
+ * org.eclipse.lsp4j.TextDocumentSyncKind#Full}, every change carries the whole document, so only
+ * the latest text and its version need to be kept.
+ *
+ * <p>The store is written by {@link CFTextDocumentService} and read by {@link CheckExecutor} when a
+ * check is sent to a worker, possibly from different threads.
+ */
+class DocumentStore {
+    /** The latest content of each open document. */
+    private final Map<File, Document> documents = new ConcurrentHashMap<>();
+
+    /**
+     * Records the latest content of an open document.
+     *
+     * @param file the document
+     * @param text the full content of the document
+     * @param version the version of the document given by the client
+     */
+    void update(File file, String text, int version) {
+        documents.put(file, new Document(text, version));
+    }
+
+    /**
+     * Forgets a document that has been closed; its truth is on disk again.
+     *
+     * @param file the document
+     */
+    void close(File file) {
+        documents.remove(file);
+    }
+
+    /**
+     * Returns the content of a document.
+     *
+     * @param file the document
+     * @return the content of the document as edited in the client, or {@code null} if the document
+     *     is not open
+     */
+    String getText(File file) {
+        Document document = documents.get(file);
+        return document == null ? null : document.getText();
+    }
+
+    /**
+     * Returns the documents that are open in the client.
+     *
+     * @return the open documents
+     */
+    List<File> openFiles() {
+        return new ArrayList<>(documents.keySet());
+    }
+
+    /**
+     * Returns the content of a document together with its version.
+     *
+     * @param file the document
+     * @return the document as edited in the client, or {@code null} if the document is not open
+     */
+    Document get(File file) {
+        return documents.get(file);
+    }
+
+    /** A version of the content of a document. */
+    static class Document {
+        /** The full content of the document. */
+        private final String text;
+
+        /** The version of the document given by the client. */
+        private final int version;
+
+        /** Default constructor for Document. */
+        Document(String text, int version) {
+            this.text = text;
+            this.version = version;
+        }
+
+        /** Getter for the full content of the document. */
+        String getText() {
+            return text;
+        }
+
+        /** Getter for the version of the document. */
+        int getVersion() {
+            return version;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.checkerframework.languageserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import org.eclipse.lsp4j.Diagnostic;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of the last check of a file, as published to the client. A result is built completely
+ * before it is stored, and never changed afterwards, so it can be read from any thread without
+ * locking.
+ */
+final class FileResult {
+    /** The version of the document that was checked, or {@code null} if it was read from disk. */
+    private final Integer version;
+
+    /**
+     * The {@link SourceKeys} key of the content that was checked, or {@code null} if the
+     * diagnostics are not the complete result of a check of the file.
+     */
+    private final String key;
+
+    /** The ID of the diagnostics for pull requests, or {@code null} if there is no key. */
+    private final String resultId;
+
+    /** The diagnostics of the file. */
+    private final List<Diagnostic> diagnostics;
+
+    /** The type information of the file. */
+    private final TypeInfoIndex typeInfo;
+
+    /**
+     * Default constructor for FileResult.
+     *
+     * @param version the version of the document that was checked, or {@code null} for the file on
+     *     disk
+     * @param key the key of the content that was checked, or {@code null} for partial diagnostics
+     * @param diagnostics the diagnostics of the file
+     * @param typeInfo the type information of the file
+     */
+    FileResult(Integer version, String key, List<Diagnostic> diagnostics, TypeInfoIndex typeInfo) {
+        this.version = version;
+        this.key = key;
+        this.diagnostics = Collections.unmodifiableList(diagnostics);
+        this.typeInfo = typeInfo;
+        this.resultId = key == null ? null : key + "-" + hash(diagnostics);
+    }
+
+    /**
+     * Hashes diagnostics into the result ID. The diagnostics of a file also depend on the files it
+     * references, so the same content can have different diagnostics after a dependency changed.
+     * The text of the diagnostics is hashed, as their hash codes differ between runs.
+     */
+    private static String hash(List<Diagnostic> diagnostics) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        for (Diagnostic d : diagnostics) {
+            hasher.putString(d.toString(), UTF_8);
+        }
+        return hasher.hash().toString();
+    }
+
+    /** Getter for the version of the document that was checked; {@code null} means the disk. */
+    Integer getVersion() {
+        return version;
+    }
+
+    /** Getter for the key of the content that was checked; {@code null} for partial diagnostics. */
+    String getKey() {
+        return key;
+    }
+
+    /** Getter for the ID of the diagnostics for pull requests; {@code null} if there is no key. */
+    String getResultId() {
+        return resultId;
+    }
+
+    /** Getter for the diagnostics of the file. */
+    List<Diagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    /** Getter for the type information of the file. */
+    TypeInfoIndex getTypeInfo() {
+        return typeInfo;
+    }
+
+    /**
+     * Returns true if this result is of a later version of the document than another result, which
+     * must then not replace it.
+     *
+     * @param other the other result
+     * @return true if both results are of versions of the document and this one is later
+     */
+    boolean isNewerThan(FileResult other) {
+        return version != null && other.version != null && version > other.version;
+    }
+}
@@ -0,0 +1,232 @@
+package org.checkerframework.languageserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A {@link JavacWrapper} that runs on a thread of the language server instead of in a process of
+ * its own, so that it shares the heap and the JDK of the server and starts without starting a JVM.
+ *
+ * <p>The wrapper and the checker are loaded from the classpath of the wrapper process by a class
+ * loader of their own, whose parent is the platform class loader: they do not see the classes of
+ * the server, such as the Checker Framework the server is built with, and their static state is
+ * dropped with the wrapper when it is recycled. The wrapper talks to the {@link CheckExecutor} over
+ * pipes in the same {@link WireFormat} as a wrapper process, so that the executor handles both
+ * alike.
+ *
+ * <p>A thread cannot be killed like a process. Destroying the wrapper closes its pipes, so that the
+ * executor sees its output end and can replace it, but a check that never reaches another javac
+ * event keeps its thread busy until it ends.
+ */
+final class InProcessWrapper extends Process {
+    /** The logger for issuing information and warnings. */
+    private static final Logger logger = Logger.getLogger(InProcessWrapper.class.getName());
+
+    /** The options of a wrapper process that export or open a package of the JDK. */
+    private static final List<String> ACCESS_OPTIONS = List.of("--add-exports", "--add-opens");
+
+    /** The pipe from the executor to the wrapper. */
+    private final Pipe stdin;
+
+    /** The pipe from the wrapper to the executor. */
+    private final Pipe stdout;
+
+    /** Writes to the standard input of the wrapper. */
+    private final OutputStream toWrapper;
+
+    /** Reads the standard output of the wrapper. */
+    private final InputStream fromWrapper;
+
+    /** The thread running the wrapper. */
+    private final Thread thread;
+
+    /** The exit value of the wrapper: 0 if it ended normally, or 1 if it failed. */
+    private volatile int exitValue = 1;
+
+    /**
+     * Starts a wrapper that runs as the given wrapper process would.
+     *
+     * @param command the command starting a wrapper process, beginning with the Java executable
+     * @param name the name of the thread of the wrapper
+     */
+    InProcessWrapper(List<String> command, String name) throws IOException {
+        String classpath = "";
+        boolean timings = false;
+        List<String> args = null;
+        for (int i = 1; i < command.size(); i++) {
+            String o = command.get(i);
+            if ((o.equals("-cp") || o.equals("-classpath")) && i + 1 < command.size()) {
+                classpath = command.get(++i);
+            } else if (o.equals("-D" + JavacWrapper.TIMINGS_PROPERTY + "=true")) {
+                timings = true;
+            } else if (ACCESS_OPTIONS.contains(o)) {
+                i++;
+            } else if (o.equals(JavacWrapper.class.getCanonicalName())) {
+                args = command.subList(i + 1, command.size());
+                break;
+            }
+        }
+        if (args == null) {
+            throw new IOException("No wrapper in the command " + command);
+        }
+        List<URL> urls = new ArrayList<>();
+        for (String entry : classpath.split(File.pathSeparator)) {
+            if (!entry.isEmpty()) {
+                urls.add(new File(entry).toURI().toURL());
+            }
+        }
+
+        stdin = Pipe.open();
+        stdout = Pipe.open();
+        String[] javacArgs = args.toArray(new String[0]);
+        boolean timed = timings;
+        InputStream in = Channels.newInputStream(stdin.source());
+        OutputStream out = Channels.newOutputStream(stdout.sink());
+        toWrapper = Channels.newOutputStream(stdin.sink());
+        fromWrapper = Channels.newInputStream(stdout.source());
+        thread =
+                new Thread(
+                        () -> {
+                            try (URLClassLoader loader =
+                                    new URLClassLoader(
+                                            urls.toArray(new URL[0]),
+                                            ClassLoader.getPlatformClassLoader())) {
+                                Thread.currentThread().setContextClassLoader(loader);
+                                Class.forName(JavacWrapper.class.getName(), true, loader)
+                                        .getMethod(
+                                                "run",
+                                                String[].class,
+                                                InputStream.class,
+                                                OutputStream.class,
+                                                boolean.class)
+                                        .invoke(null, javacArgs, in, out, timed);
+                                exitValue = 0;
+                            } catch (InvocationTargetException e) {
+                                logger.warning(name + " failed: " + e.getCause());
+                            } catch (ReflectiveOperationException | IOException | LinkageError e) {
+                                logger.warning("Failed to run " + name + ": " + e);
+                            } finally {
+                                closeQuietly(stdout.sink());
+                                closeQuietly(stdin.source());
+                            }
+                        },
+                        name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns true if the server can run the wrappers started with the given command. The checker
+     * needs the JDK packages that the command exports and opens to it, which must be exported and
+     * opened to the server too, by the same options on its own command line.
+     *
+     * @param command the command starting a wrapper process
+     * @return true if the JDK packages the wrappers need are accessible
+     */
+    static boolean isSupported(List<String> command) {
+        Module self = InProcessWrapper.class.getModule();
+        List<String> missing = new ArrayList<>();
+        for (int i = 1; i < command.size(); i++) {
+            String o = command.get(i);
+            String option = o.contains("=") ? o.substring(0, o.indexOf('=')) : o;
+            if (!ACCESS_OPTIONS.contains(option)) {
+                continue;
+            }
+            String value = option.equals(o) ? command.get(++i) : o.substring(option.length() + 1);
+            int slash = value.indexOf('/');
+            int equals = value.indexOf('=');
+            if (slash < 0 || equals < slash) {
+                continue;
+            }
+            Optional<Module> module = ModuleLayer.boot().findModule(value.substring(0, slash));
+            String pkg = value.substring(slash + 1, equals);
+            boolean accessible =
+                    module.isPresent()
+                            && (option.equals("--add-opens")
+                                    ? module.get().isOpen(pkg, self)
+                                    : module.get().isExported(pkg, self));
+            if (!accessible) {
+                missing.add(option + "=" + value);
+            }
+        }
+        if (!missing.isEmpty()) {
+            logger.warning(
+                    "Starting wrapper processes, as checking in the server needs the JVM options "
+                            + String.join(" ", missing));
+            return false;
+        }
+        return true;
+    }
+
+    /** Closes a pipe end, which is being discarded. */
+    private static void closeQuietly(java.nio.channels.Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // Nothing reads or writes it anymore.
+        }
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return toWrapper;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return fromWrapper;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return InputStream.nullInputStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        thread.join();
+        return exitValue;
+    }
+
+    @Override
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        thread.join(Math.max(1, unit.toMillis(timeout)));
+        return !thread.isAlive();
+    }
+
+    @Override
+    public int exitValue() {
+        if (thread.isAlive()) {
+            throw new IllegalThreadStateException("The wrapper is running");
+        }
+        return exitValue;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return thread.isAlive();
+    }
+
+    /**
+     * Closes the pipes of the wrapper and interrupts it. The executor sees the output of the
+     * wrapper end, and the wrapper stops at its next read or write.
+     */
+    @Override
+    public void destroy() {
+        closeQuietly(stdin.sink());
+        closeQuietly(stdout.sink());
+        thread.interrupt();
+    }
+}
@@ -1,19 +1,45 @@
 package org.checkerframework.languageserver;
 
-import static java.nio.charset.StandardCharsets.UTF_8;
-
-import com.google.gson.Gson;
+import com.sun.source.tree.IdentifierTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
 
-import javax.tools.DiagnosticCollector;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticListener;
 import javax.tools.JavaCompiler;
 import javax.tools.JavaFileObject;
-import javax.tools.StandardJavaFileManager;
+import javax.tools.SimpleJavaFileObject;
 import javax.tools.ToolProvider;
 
 /**
@@ -21,26 +47,61 @@ import javax.tools.ToolProvider;
  * parameters transparently to javac, and so for other classes it behaves exactly the same as javac
  * and can substitute com.sun.tools.javac.Main.
  *
- * <p>The main reads file paths from standard input and compiles those files.
+ * <p>The main reads {@link CheckRequest}s in the {@link WireFormat} from standard input and
+ * compiles the requested files. A request either names a file on disk or carries the unsaved
+ * content of the file, which is then compiled from memory. All files of a request are compiled in a
+ * single javac task. Requests are read on a separate thread, so that a request to cancel a check is
+ * noticed while the check is running: the check is then aborted at the next {@link TaskEvent}, and
+ * checks that have not started yet are skipped.
  *
- * <p>The resulting javac diagnostics are printed to standard output in the {@link CFDiagnosticList}
- * JSON format.
+ * <p>The resulting javac diagnostics are written to standard output as a {@link CFDiagnosticList}
+ * in the {@link WireFormat}. Diagnostics are streamed: those reported so far are sent in a partial
+ * list at every compiler event and whenever {@link #PARTIAL_LIMIT} of them have piled up, and the
+ * complete list at the end carries the rest. Anything else printed to standard output, for example
+ * by a checker, is sent to standard error instead.
  *
  * <p>{@link CheckExecutor} uses the {@code JavacWrapper} to compile individual files without having
  * to start up a new process.
  */
 public class JavacWrapper {
+    /**
+     * The system property that makes the wrapper record the time spent in each phase and checker,
+     * see {@link PhaseTimer}.
+     */
+    static final String TIMINGS_PROPERTY = "org.checkerframework.languageserver.timings";
+
     /** The options passed to the Java compiler. */
     private final List<String> options;
 
+    /** The class names of the checkers if timings are recorded, or {@code null}. */
+    private final List<String> timedCheckers;
+
     /** The Java compiler. */
     private final JavaCompiler javac;
 
-    /** The Java file manager. */
-    private final StandardJavaFileManager fileManager;
+    /**
+     * The Java file manager, shared by all compilations so that the classpath is not opened and
+     * listed again for every check.
+     */
+    private CachingFileManager fileManager;
 
-    /** The gson for Javac wrapper. */
-    private final Gson gson;
+    /** The stream the requests are read from, the standard input of the wrapper. */
+    private final InputStream input;
+
+    /** Writes the results to the original standard output. */
+    private final WireFormat.Writer results;
+
+    /** The check requests that have been read but not compiled yet. */
+    private final BlockingQueue<CheckRequest> requests;
+
+    /** The ids of the checks that have been cancelled but not answered yet. */
+    private final Set<Long> cancelled;
+
+    /** The number of diagnostics after which a partial result is sent without waiting. */
+    private static final int PARTIAL_LIMIT = 64;
+
+    /** Marks the end of the standard input in {@link #requests}. */
+    private static final CheckRequest END_OF_INPUT = CheckRequest.cancel(-1);
 
     /**
      * The entry point of the Java wrapper for the language server.
@@ -48,38 +109,422 @@ public class JavacWrapper {
      * @param args the input arguments
      */
     public static void main(String[] args) {
-        JavacWrapper javacw = new JavacWrapper(args);
-        Scanner input = new Scanner(System.in, UTF_8.name());
+        PrintStream out = System.out;
+        System.setOut(System.err);
+        run(args, System.in, out, Boolean.getBoolean(TIMINGS_PROPERTY));
+    }
 
-        while (input.hasNextLine()) {
-            javacw.compile(input.nextLine());
+    /**
+     * Reads requests from a stream and writes the results to another until the requests end. This
+     * is the main of the wrapper, which {@link InProcessWrapper} calls directly.
+     *
+     * @param args the options of javac
+     * @param in the stream of requests
+     * @param out the stream of results
+     * @param timings whether to record the time spent in each phase and checker
+     */
+    public static void run(String[] args, InputStream in, OutputStream out, boolean timings) {
+        JavacWrapper javacw = new JavacWrapper(args, in, out, timings);
+        Thread reader = new Thread(javacw::readRequests, "JavacWrapper-Reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            CheckRequest request;
+            while ((request = javacw.requests.take()) != END_OF_INPUT) {
+                javacw.compile(request);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     /** Default constructor for Javac wrapper class. */
-    private JavacWrapper(String[] args) {
+    private JavacWrapper(String[] args, InputStream in, OutputStream out, boolean timings) {
         options = new ArrayList<>();
         options.addAll(Arrays.asList(args));
+        timedCheckers = timings ? PhaseTimer.processorNames(options) : null;
+        input = in;
         javac = ToolProvider.getSystemJavaCompiler();
-        fileManager = javac.getStandardFileManager(null, null, null);
-        gson = new Gson();
-        // To make debugging easier, use the following instead:
-        // gson = new GsonBuilder().setPrettyPrinting().create();
+        fileManager = new CachingFileManager(javac.getStandardFileManager(null, null, null));
+        results = new WireFormat.Writer(out);
+        requests = new LinkedBlockingQueue<>();
+        cancelled = ConcurrentHashMap.newKeySet();
+    }
+
+    /** Reads requests from standard input until it is closed, handling cancellations directly. */
+    private void readRequests() {
+        WireFormat.Reader reader = new WireFormat.Reader(input);
+        try {
+            CheckRequest request;
+            while ((request = reader.readRequest()) != null) {
+                if (request.isCancel()) {
+                    cancelled.add(request.getId());
+                } else {
+                    requests.add(request);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read requests: " + e);
+        }
+        requests.add(END_OF_INPUT);
     }
 
     /**
-     * Compiles a single Java file. This method takes the path of a Java file, compiles it, and
-     * outputs the compilation diagnostics.
+     * Compiles a batch of Java files. This method takes the request for the Java files, compiles
+     * them in a single task, and outputs the compilation diagnostics of all of them.
      *
-     * @param f The path of the Java file to be compiled.
+     * @param request The request naming the Java files to be compiled.
+     */
+    private void compile(CheckRequest request) {
+        long id = request.getId();
+        // Requests are answered in order, so cancellations of earlier checks came too late.
+        cancelled.removeIf(c -> c < id);
+        if (cancelled.remove(id)) {
+            send(CFDiagnosticList.cancelled(id));
+            return;
+        }
+
+        if (!fileManager.isUpToDate()) {
+            // An archive on the classpath was replaced; forget everything read from it.
+            try {
+                fileManager.close();
+            } catch (IOException e) {
+                // The old file manager is discarded anyway.
+            }
+            fileManager = new CachingFileManager(javac.getStandardFileManager(null, null, null));
+        }
+
+        StreamingListener diagnostics = new StreamingListener(id);
+        List<String> onDisk = new ArrayList<>();
+        List<JavaFileObject> javaFiles = new ArrayList<>();
+        for (CheckRequest.Source source : request.getSources()) {
+            if (source.getText() == null) {
+                onDisk.add(source.getPath());
+            } else {
+                javaFiles.add(new SourceFileObject(source.getPath(), source.getText()));
+            }
+        }
+        if (!onDisk.isEmpty()) {
+            for (JavaFileObject f :
+                    fileManager.getDelegate().getJavaFileObjectsFromStrings(onDisk)) {
+                javaFiles.add(f);
+            }
+        }
+        JavacTask task =
+                (JavacTask) javac.getTask(null, fileManager, diagnostics, options, null, javaFiles);
+        fileManager.recordFingerprint();
+        PhaseTimer timer = timedCheckers != null ? new PhaseTimer() : null;
+        if (timer != null) {
+            task.addTaskListener(timer);
+        }
+        task.addTaskListener(new CancellationListener(id));
+        task.addTaskListener(diagnostics);
+        ReferenceListener references = new ReferenceListener(Trees.instance(task));
+        task.addTaskListener(references);
+        if (timer != null) {
+            timer.timeCheckers(task, fileManager, timedCheckers);
+        }
+        try {
+            task.call();
+        } catch (RuntimeException e) {
+            if (!isCancellation(e)) {
+                throw e;
+            }
+        } finally {
+            if (timer != null) {
+                timer.close();
+            }
+        }
+
+        CFDiagnosticList diags;
+        if (cancelled.remove(id)) {
+            diags = CFDiagnosticList.cancelled(id);
+        } else {
+            diags =
+                    new CFDiagnosticList(
+                            id,
+                            false,
+                            false,
+                            diagnostics.getUnsent(),
+                            references.getReferences(),
+                            heapUsed(),
+                            timer != null ? timer.getTimings() : new ArrayList<>());
+        }
+        send(diags);
+    }
+
+    /**
+     * Returns the heap used after the last garbage collection, which unlike the current usage does
+     * not count garbage, so that the language server can recycle a wrapper whose caches grew too
+     * large.
+     */
+    private static long heapUsed() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage usage = pool.getCollectionUsage();
+            if (pool.getType() == MemoryType.HEAP && usage != null) {
+                used += usage.getUsed();
+            }
+        }
+        return used;
+    }
+
+    /**
+     * Writes the result of a check to standard output.
+     *
+     * @param diags the result
+     * @throws UncheckedIOException if the result cannot be written, which ends the wrapper
+     */
+    private void send(CFDiagnosticList diags) {
+        try {
+            results.writeResult(diags);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns true if the given exception aborted a compilation because of a cancellation. javac
+     * may wrap the exception thrown by the {@link CancellationListener}.
+     */
+    private static boolean isCancellation(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Records which top-level types each compiled file declares and refers to, from the attributed
+     * trees of the file, and from which other source files of the compilation the referenced types
+     * come.
      */
-    private void compile(String f) {
-        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
-        Iterable<? extends JavaFileObject> javaFiles =
-                fileManager.getJavaFileObjectsFromStrings(Collections.singletonList(f));
-        javac.getTask(null, null, diagnostics, options, null, javaFiles).call();
-
-        CFDiagnosticList diags = new CFDiagnosticList(diagnostics.getDiagnostics());
-        System.out.println(gson.toJson(diags, CFDiagnosticList.class));
+    private static class ReferenceListener implements TaskListener {
+        /** The trees of the compilation. */
+        private final Trees trees;
+
+        /** The declared top-level types of each file URI. */
+        private final Map<String, Set<String>> declared = new LinkedHashMap<>();
+
+        /** The referenced top-level types of each file URI. */
+        private final Map<String, Set<String>> referenced = new HashMap<>();
+
+        /** The source files the referenced types come from, of each file URI. */
+        private final Map<String, Set<String>> sources = new HashMap<>();
+
+        /**
+         * The URI of the source file of each referenced type, or the empty string for a type read
+         * from a class file.
+         */
+        private final Map<TypeElement, String> sourceFiles = new HashMap<>();
+
+        /** Default constructor for ReferenceListener. */
+        ReferenceListener(Trees trees) {
+            this.trees = trees;
+        }
+
+        @Override
+        public void finished(TaskEvent e) {
+            if (e.getKind() != TaskEvent.Kind.ANALYZE || e.getTypeElement() == null) {
+                return;
+            }
+            TreePath path = trees.getPath(e.getTypeElement());
+            if (path == null) {
+                return;
+            }
+            String uri = e.getSourceFile().toUri().toString();
+            TypeElement top = topLevelType(e.getTypeElement());
+            if (top != null) {
+                declared.computeIfAbsent(uri, u -> new LinkedHashSet<>())
+                        .add(top.getQualifiedName().toString());
+            }
+            Set<String> refs = referenced.computeIfAbsent(uri, u -> new LinkedHashSet<>());
+            Set<String> srcs = sources.computeIfAbsent(uri, u -> new LinkedHashSet<>());
+            new TreePathScanner<Void, Void>() {
+                @Override
+                public Void visitIdentifier(IdentifierTree node, Void p) {
+                    record();
+                    return super.visitIdentifier(node, p);
+                }
+
+                @Override
+                public Void visitMemberSelect(MemberSelectTree node, Void p) {
+                    record();
+                    return super.visitMemberSelect(node, p);
+                }
+
+                /** Records the top-level type of the element the current tree refers to. */
+                private void record() {
+                    TypeElement t = topLevelType(trees.getElement(getCurrentPath()));
+                    if (t != null) {
+                        String name = t.getQualifiedName().toString();
+                        // The platform classes do not change with the sources.
+                        if (!name.startsWith("java.") && !name.startsWith("javax.")) {
+                            refs.add(name);
+                            String source =
+                                    sourceFiles.computeIfAbsent(
+                                            t, ReferenceListener.this::sourceFile);
+                            if (!source.isEmpty() && !source.equals(uri)) {
+                                srcs.add(source);
+                            }
+                        }
+                    }
+                }
+            }.scan(path, null);
+        }
+
+        /**
+         * Returns the references of the files analyzed so far.
+         *
+         * @return the references of each analyzed file
+         */
+        List<SourceReferences> getReferences() {
+            List<SourceReferences> result = new ArrayList<>(declared.size());
+            for (Map.Entry<String, Set<String>> entry : declared.entrySet()) {
+                Set<String> refs = referenced.get(entry.getKey());
+                refs.removeAll(entry.getValue());
+                result.add(
+                        new SourceReferences(
+                                entry.getKey(),
+                                entry.getValue(),
+                                refs,
+                                sources.get(entry.getKey())));
+            }
+            return result;
+        }
+
+        /**
+         * Returns the source file a type comes from in this compilation.
+         *
+         * @param type a top-level type
+         * @return the URI of the source file, or the empty string if the type was read from a class
+         *     file
+         */
+        private String sourceFile(TypeElement type) {
+            TreePath path = trees.getPath(type);
+            return path != null ? path.getCompilationUnit().getSourceFile().toUri().toString() : "";
+        }
+
+        /**
+         * Returns the outermost type enclosing an element.
+         *
+         * @param element an element, possibly {@code null}
+         * @return the top-level type enclosing or being the element, or {@code null} if there is
+         *     none
+         */
+        private static TypeElement topLevelType(Element element) {
+            TypeElement top = null;
+            for (Element e = element;
+                    e != null
+                            && e.getKind() != ElementKind.PACKAGE
+                            && e.getKind() != ElementKind.MODULE;
+                    e = e.getEnclosingElement()) {
+                if (e.getKind().isClass() || e.getKind().isInterface()) {
+                    top = (TypeElement) e;
+                }
+            }
+            return top;
+        }
+    }
+
+    /**
+     * Sends the diagnostics of a compilation while it runs. Diagnostics are collected as javac
+     * reports them, and sent as a partial result at the next compiler event, or as soon as {@link
+     * #PARTIAL_LIMIT} of them are waiting.
+     */
+    private class StreamingListener implements DiagnosticListener<JavaFileObject>, TaskListener {
+        /** The id of the check. */
+        private final long id;
+
+        /** The diagnostics reported but not sent yet. */
+        private List<CFDiagnostic> unsent = new ArrayList<>();
+
+        /** Default constructor for StreamingListener. */
+        StreamingListener(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
+            unsent.add(new CFDiagnostic(diagnostic));
+            if (unsent.size() >= PARTIAL_LIMIT) {
+                flush();
+            }
+        }
+
+        @Override
+        public void started(TaskEvent e) {
+            flush();
+        }
+
+        @Override
+        public void finished(TaskEvent e) {
+            flush();
+        }
+
+        /** Sends the waiting diagnostics as a partial result, unless the check is cancelled. */
+        private void flush() {
+            if (unsent.isEmpty() || cancelled.contains(id)) {
+                return;
+            }
+            send(CFDiagnosticList.partial(id, unsent));
+            unsent = new ArrayList<>();
+        }
+
+        /** Returns the diagnostics that have not been sent in a partial result. */
+        List<CFDiagnostic> getUnsent() {
+            return unsent;
+        }
+    }
+
+    /** Aborts a compilation at the next compiler event once its check has been cancelled. */
+    private class CancellationListener implements TaskListener {
+        /** The id of the check. */
+        private final long id;
+
+        /** Default constructor for CancellationListener. */
+        CancellationListener(long id) {
+            this.id = id;
+        }
+
+        @Override
+        public void started(TaskEvent e) {
+            checkCancelled();
+        }
+
+        @Override
+        public void finished(TaskEvent e) {
+            checkCancelled();
+        }
+
+        /** Throws a {@link CancellationException} if the check has been cancelled. */
+        private void checkCancelled() {
+            if (cancelled.contains(id)) {
+                throw new CancellationException("check " + id + " cancelled");
+            }
+        }
+    }
+
+    /**
+     * A source file whose content is held in memory. Its URI is the one the file manager would give
+     * the file on disk, so the diagnostics refer to the same document either way.
+     */
+    private static class SourceFileObject extends SimpleJavaFileObject {
+        /** The content of the file. */
+        private final String text;
+
+        /** Default constructor for SourceFileObject. */
+        SourceFileObject(String path, String text) {
+            super(Paths.get(path).toUri(), Kind.SOURCE);
+            this.text = text;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return text;
+        }
     }
 }
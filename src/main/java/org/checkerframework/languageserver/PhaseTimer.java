@@ -0,0 +1,296 @@
+package org.checkerframework.languageserver;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.Completion;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.tools.JavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * Records the wall time and the allocation of one javac task in each phase and each checker, for
+ * every compiled file.
+ *
+ * <p>The javac phases are measured between the started and finished events of the phase. The
+ * checkers do their work when the analysis of a class has finished, each in a task listener that it
+ * registers as it is initialized, and the listeners are called in the order they were registered.
+ * The timer therefore instantiates the checkers itself and wraps each one, so that it can register
+ * a marker listener right after the listener of every checker: the time between two markers is the
+ * time of the checker in between. A timer is used for a single task.
+ */
+final class PhaseTimer implements TaskListener {
+    /** Measures the allocation of the compiling thread, or {@code null} if it cannot. */
+    private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+    /** The javac phases that are recorded for each file; the others are recorded for the task. */
+    private static final Set<TaskEvent.Kind> FILE_PHASES =
+            EnumSet.of(TaskEvent.Kind.PARSE, TaskEvent.Kind.ANALYZE);
+
+    /** The javac phases that are recorded for the whole task, as they overlap between files. */
+    private static final Set<TaskEvent.Kind> TASK_PHASES =
+            EnumSet.of(TaskEvent.Kind.ENTER, TaskEvent.Kind.ANNOTATION_PROCESSING);
+
+    /**
+     * The time and allocation at the start of each running phase, followed by the number of its
+     * events that have started but not finished.
+     */
+    private final Map<TaskEvent.Kind, long[]> started = new EnumMap<>(TaskEvent.Kind.class);
+
+    /** The time and allocation of each phase and checker, by file URI; "" for the whole task. */
+    private final Map<String, Map<String, long[]>> recorded = new LinkedHashMap<>();
+
+    /** The time and allocation at the last marker. */
+    private long[] mark;
+
+    /** The file URI whose class is being checked, or {@code null} outside of the checkers. */
+    private String checking;
+
+    /** The class loader of the checkers, closed with the timer. */
+    private ClassLoader loader;
+
+    /**
+     * Returns the allocation bean of the JVM, or {@code null} if it does not measure allocation.
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+            if (threads.isThreadAllocatedMemorySupported()
+                    && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads;
+            }
+        }
+        return null;
+    }
+
+    /** Returns the current time and the allocation of the current thread so far. */
+    private static long[] now() {
+        long bytes =
+                THREADS == null
+                        ? 0
+                        : THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+        return new long[] {System.nanoTime(), bytes};
+    }
+
+    /**
+     * Returns the checkers named by the {@code -processor} option.
+     *
+     * @param options the options of javac
+     * @return the class names of the checkers, in the order given
+     */
+    static List<String> processorNames(List<String> options) {
+        int i = options.indexOf("-processor");
+        if (i < 0 || i + 1 >= options.size()) {
+            return new ArrayList<>();
+        }
+        return Arrays.asList(options.get(i + 1).split(","));
+    }
+
+    /**
+     * Times the checkers of a task. The timer must have been added to the task as its first
+     * listener, and this method is called after the other listeners have been added, so that their
+     * time is not counted for a checker. If a checker cannot be instantiated, javac instantiates
+     * the checkers itself, and only the phases are timed.
+     *
+     * @param task the task
+     * @param fileManager the file manager of the task
+     * @param names the class names of the checkers
+     */
+    void timeCheckers(JavacTask task, JavaFileManager fileManager, List<String> names) {
+        task.addTaskListener(new Marker(null));
+        ClassLoader cl =
+                fileManager.hasLocation(StandardLocation.ANNOTATION_PROCESSOR_PATH)
+                        ? fileManager.getClassLoader(StandardLocation.ANNOTATION_PROCESSOR_PATH)
+                        : fileManager.getClassLoader(StandardLocation.CLASS_PATH);
+        loader = cl;
+        List<Processor> processors = new ArrayList<>(names.size());
+        try {
+            for (String name : names) {
+                Processor p =
+                        (Processor)
+                                cl.loadClass(name.trim()).getDeclaredConstructor().newInstance();
+                processors.add(new TimedProcessor(p, name.trim()));
+            }
+        } catch (ReflectiveOperationException | ClassCastException | LinkageError e) {
+            System.err.println("Failed to time the checkers: " + e);
+            return;
+        }
+        task.setProcessors(processors);
+    }
+
+    /** Closes the class loader of the checkers. */
+    void close() {
+        if (loader instanceof Closeable) {
+            try {
+                ((Closeable) loader).close();
+            } catch (IOException e) {
+                // The checkers are not used anymore.
+            }
+        }
+    }
+
+    @Override
+    public void started(TaskEvent e) {
+        if (!FILE_PHASES.contains(e.getKind()) && !TASK_PHASES.contains(e.getKind())) {
+            return;
+        }
+        long[] start = started.get(e.getKind());
+        if (start == null) {
+            long[] now = now();
+            start = new long[] {now[0], now[1], 0};
+            started.put(e.getKind(), start);
+        }
+        start[2]++;
+    }
+
+    @Override
+    public void finished(TaskEvent e) {
+        long[] start = started.get(e.getKind());
+        if (start == null || --start[2] > 0) {
+            return;
+        }
+        started.remove(e.getKind());
+        String file =
+                FILE_PHASES.contains(e.getKind()) && e.getSourceFile() != null
+                        ? e.getSourceFile().toUri().toString()
+                        : "";
+        add(file, e.getKind().name().toLowerCase(Locale.ROOT), start, now());
+        if (e.getKind() == TaskEvent.Kind.ANALYZE) {
+            checking = file;
+        }
+    }
+
+    /** Adds the time and allocation between two measurements to a phase of a file. */
+    private void add(String file, String phase, long[] start, long[] end) {
+        long[] total =
+                recorded.computeIfAbsent(file, f -> new LinkedHashMap<>())
+                        .computeIfAbsent(phase, p -> new long[2]);
+        total[0] += end[0] - start[0];
+        total[1] += end[1] - start[1];
+    }
+
+    /**
+     * Returns the time and allocation of each phase and checker recorded so far.
+     *
+     * @return the timings, with a {@code null} file for the phases of the whole task
+     */
+    List<PhaseTiming> getTimings() {
+        List<PhaseTiming> timings = new ArrayList<>();
+        for (Map.Entry<String, Map<String, long[]>> file : recorded.entrySet()) {
+            String uri = file.getKey().isEmpty() ? null : file.getKey();
+            for (Map.Entry<String, long[]> phase : file.getValue().entrySet()) {
+                long[] total = phase.getValue();
+                timings.add(new PhaseTiming(uri, phase.getKey(), total[0], total[1]));
+            }
+        }
+        return timings;
+    }
+
+    /**
+     * Marks the end of the work of a checker on the class whose analysis has finished, and the
+     * start of the work of the next one.
+     */
+    private class Marker implements TaskListener {
+        /** The checker whose listener precedes this marker, or {@code null} for the first one. */
+        private final String checker;
+
+        /** Default constructor for Marker. */
+        Marker(String checker) {
+            this.checker = checker;
+        }
+
+        @Override
+        public void finished(TaskEvent e) {
+            if (e.getKind() != TaskEvent.Kind.ANALYZE || checking == null) {
+                return;
+            }
+            long[] end = now();
+            if (checker != null && mark != null) {
+                add(checking, checker, mark, end);
+            }
+            mark = end;
+        }
+    }
+
+    /**
+     * A checker whose initialization and annotation processing rounds are timed, and which is
+     * followed by a {@link Marker}.
+     */
+    private class TimedProcessor implements Processor {
+        /** The checker. */
+        private final Processor delegate;
+
+        /** The class name of the checker. */
+        private final String name;
+
+        /** Default constructor for TimedProcessor. */
+        TimedProcessor(Processor delegate, String name) {
+            this.delegate = delegate;
+            this.name = name;
+        }
+
+        @Override
+        public Set<String> getSupportedOptions() {
+            return delegate.getSupportedOptions();
+        }
+
+        @Override
+        public Set<String> getSupportedAnnotationTypes() {
+            return delegate.getSupportedAnnotationTypes();
+        }
+
+        @Override
+        public SourceVersion getSupportedSourceVersion() {
+            return delegate.getSupportedSourceVersion();
+        }
+
+        @Override
+        public void init(ProcessingEnvironment processingEnv) {
+            long[] start = now();
+            delegate.init(processingEnv);
+            add("", name, start, now());
+            JavacTask.instance(processingEnv).addTaskListener(new Marker(name));
+        }
+
+        @Override
+        public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+            long[] start = now();
+            try {
+                return delegate.process(annotations, roundEnv);
+            } finally {
+                add("", name, start, now());
+            }
+        }
+
+        @Override
+        public Iterable<? extends Completion> getCompletions(
+                Element element,
+                AnnotationMirror annotation,
+                ExecutableElement member,
+                String userText) {
+            return delegate.getCompletions(element, annotation, member, userText);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package org.checkerframework.languageserver;
+
+/**
+ * The time a check spent in one phase of javac or in one checker, for one source file. It is sent
+ * from {@link JavacWrapper} to {@link CheckExecutor} with the result of the check, and from there
+ * to the client as JSON in a {@code telemetry/event}.
+ */
+public class PhaseTiming {
+    /** The file URI, or {@code null} for a phase that concerns the whole check. */
+    private final String file;
+
+    /**
+     * The phase: a javac phase such as {@code parse} or {@code analyze}, or the class name of a
+     * checker.
+     */
+    private final String phase;
+
+    /** The wall time spent, in nanoseconds. */
+    private final long nanos;
+
+    /** The memory allocated by the compiling thread, in bytes, or 0 if unknown. */
+    private final long allocatedBytes;
+
+    /** Default constructor for PhaseTiming. */
+    public PhaseTiming(String file, String phase, long nanos, long allocatedBytes) {
+        this.file = file;
+        this.phase = phase;
+        this.nanos = nanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /** Getter for the file URI; {@code null} for a phase of the whole check. */
+    public String getFile() {
+        return file;
+    }
+
+    /** Getter for the javac phase or checker. */
+    public String getPhase() {
+        return phase;
+    }
+
+    /** Getter for the wall time spent, in nanoseconds. */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /** Getter for the memory allocated, in bytes; 0 if unknown. */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+}
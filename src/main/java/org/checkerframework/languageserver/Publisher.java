@@ -11,6 +11,27 @@ public interface Publisher {
      * Publish diagnostic results.
      *
      * @param diagnostics mapping from resource location to list of javac diagnostics
+     * @param versions mapping from resource location to the content that was checked, for the
+     *     checked files
      */
-    void publish(Map<String, List<Diagnostic<?>>> diagnostics);
+    void publish(Map<String, List<Diagnostic<?>>> diagnostics, Map<String, SourceVersion> versions);
+
+    /**
+     * Publish the diagnostics found so far by a check that is still running. The complete results
+     * are passed to {@link #publish} once the check ends. By default, partial results are ignored.
+     *
+     * @param diagnostics mapping from resource location to the javac diagnostics found so far
+     * @param versions mapping from resource location to the content being checked, for the checked
+     *     files
+     */
+    default void publishPartial(
+            Map<String, List<Diagnostic<?>>> diagnostics, Map<String, SourceVersion> versions) {}
+
+    /**
+     * Publish the time a check spent in each javac phase and each checker, for every checked file.
+     * Timings are only recorded when requested. By default, they are ignored.
+     *
+     * @param timings the timings of the check
+     */
+    default void publishTimings(List<PhaseTiming> timings) {}
 }
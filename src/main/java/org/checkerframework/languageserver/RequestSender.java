@@ -0,0 +1,130 @@
+package org.checkerframework.languageserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Sends the requests of a worker of {@link CheckExecutor} to its wrapper on a thread of its own, so
+ * that a thread submitting a check never waits for the wrapper to read its input. The thread is a
+ * platform thread: it blocks in writes to the wrapper while holding the lock of the {@link
+ * WireFormat.Writer}, which would pin a virtual thread to its carrier.
+ *
+ * <p>The queue is bounded: a check request is refused while {@link #CAPACITY} requests are waiting,
+ * which only happens when the wrapper has stopped reading. The worker then holds the check back,
+ * and sends it once the wrapper reads again, or hands it over to the successor of the wrapper once
+ * the supervisor has replaced it. A cancellation is always accepted. If the request of the
+ * cancelled check has not been sent yet, the cancellation supersedes it: the request is sent
+ * without its files, right after the cancellation, so that the wrapper answers it as cancelled
+ * without reading the files again.
+ */
+final class RequestSender {
+    /** The logger for issuing information and warnings. */
+    private static final Logger logger = Logger.getLogger(RequestSender.class.getName());
+
+    /** The number of waiting requests beyond which check requests are refused. */
+    static final int CAPACITY = 64;
+
+    /** The writer to the standard input of the wrapper. */
+    private final WireFormat.Writer out;
+
+    /** The name of the thread, used for logging. */
+    private final String name;
+
+    /** The requests that have not been sent yet, in order. */
+    private final List<CheckRequest> queue = new ArrayList<>();
+
+    /**
+     * Whether no more requests are accepted, so that the input is closed once the queue is sent.
+     */
+    private boolean closing;
+
+    /**
+     * Starts the thread that sends the requests.
+     *
+     * @param out the writer to the standard input of the wrapper
+     * @param name the name of the thread
+     */
+    RequestSender(WireFormat.Writer out, String name) {
+        this.out = out;
+        this.name = name;
+        Thread t = new Thread(this::run, name);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Queues a request to be sent, without waiting.
+     *
+     * @param request the check request or cancellation
+     * @return true if the request is queued, or false if it is refused as the queue is full or
+     *     closed
+     */
+    synchronized boolean send(CheckRequest request) {
+        if (closing) {
+            return false;
+        }
+        if (request.isCancel()) {
+            for (int i = 0; i < queue.size(); i++) {
+                CheckRequest queued = queue.get(i);
+                if (!queued.isCancel() && queued.getId() == request.getId()) {
+                    queue.set(i, new CheckRequest(queued.getId(), Collections.emptyList()));
+                    queue.add(i, request);
+                    return true;
+                }
+            }
+        } else if (queue.size() >= CAPACITY) {
+            return false;
+        }
+        queue.add(request);
+        notifyAll();
+        return true;
+    }
+
+    /** Closes the standard input of the wrapper once the queued requests have been sent. */
+    synchronized void close() {
+        closing = true;
+        notifyAll();
+    }
+
+    /**
+     * Drops the queued requests and closes the standard input of the wrapper, whose checks are
+     * taken over by another worker.
+     */
+    synchronized void closeNow() {
+        queue.clear();
+        close();
+    }
+
+    /** Sends the queued requests until the sender is closed. */
+    private void run() {
+        try {
+            while (true) {
+                CheckRequest next;
+                synchronized (this) {
+                    while (queue.isEmpty() && !closing) {
+                        wait();
+                    }
+                    if (queue.isEmpty()) {
+                        break;
+                    }
+                    next = queue.remove(0);
+                }
+                out.writeRequest(next);
+            }
+        } catch (IOException e) {
+            // The wrapper is gone; the supervisor hands its checks over to a new one.
+            logger.warning("Failed to send a request from " + name + ": " + e.toString());
+            closeNow();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            // The wrapper is gone already.
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.eclipse.lsp4j.jsonrpc.Launcher;
 import org.eclipse.lsp4j.launch.LSPLauncher;
 import org.eclipse.lsp4j.services.LanguageClient;
 
+import java.io.PrintStream;
 import java.util.Arrays;
 import java.util.concurrent.Future;
 import java.util.logging.Level;
@@ -37,6 +38,96 @@ public class ServerMain {
      */
     private static final String OPT_COMMANDLINEOPTIONS = "commandLineOptions";
 
+    /**
+     * Number of JavacWrapper worker processes. This is a configurable option for the language
+     * server on the client side.
+     */
+    private static final String OPT_WORKERS = "workers";
+
+    /**
+     * Quiet window in milliseconds before edited or saved files are checked. This is a configurable
+     * option for the language server on the client side.
+     */
+    private static final String OPT_DEBOUNCEMILLIS = "debounceMillis";
+
+    /**
+     * Directory of the persistent diagnostics cache. This is a configurable option for the language
+     * server on the client side.
+     */
+    private static final String OPT_CACHEDIRECTORY = "cacheDirectory";
+
+    /**
+     * Maximum number of dependent files re-checked after a save. This is a configurable option for
+     * the language server on the client side.
+     */
+    private static final String OPT_DEPENDENTSLIMIT = "dependentsLimit";
+
+    /**
+     * Whether all sources in the workspace are checked in the background. This is a configurable
+     * option for the language server on the client side.
+     */
+    private static final String OPT_CHECKWORKSPACE = "checkWorkspace";
+
+    /**
+     * Whether diagnostics are published while a check is still running. This is a configurable
+     * option for the language server on the client side.
+     */
+    private static final String OPT_STREAMDIAGNOSTICS = "streamDiagnostics";
+
+    /**
+     * Longest time in seconds a check may run before its worker is restarted. This is a
+     * configurable option for the language server on the client side.
+     */
+    private static final String OPT_CHECKTIMEOUTSECONDS = "checkTimeoutSeconds";
+
+    /**
+     * Number of checks after which a worker is restarted. This is a configurable option for the
+     * language server on the client side.
+     */
+    private static final String OPT_RECYCLEAFTERCHECKS = "recycleAfterChecks";
+
+    /**
+     * Heap use in megabytes after which a worker is restarted. This is a configurable option for
+     * the language server on the client side.
+     */
+    private static final String OPT_WORKERHEAPLIMITMEGABYTES = "workerHeapLimitMegabytes";
+
+    /**
+     * Maximum heap of a worker JVM in megabytes. This is a configurable option for the language
+     * server on the client side.
+     */
+    private static final String OPT_WORKERMAXHEAPMEGABYTES = "workerMaxHeapMegabytes";
+
+    /**
+     * Options of the worker JVMs. This is a configurable option for the language server on the
+     * client side.
+     */
+    private static final String OPT_WORKERJVMOPTIONS = "workerJvmOptions";
+
+    /**
+     * Share class data between the worker JVMs. This is a configurable option for the language
+     * server on the client side.
+     */
+    private static final String OPT_CLASSDATASHARING = "classDataSharing";
+
+    /**
+     * Report the time spent in each phase and checker. This is a configurable option for the
+     * language server on the client side.
+     */
+    private static final String OPT_REPORTTIMINGS = "reportTimings";
+
+    /**
+     * Run the checks in the language server instead of in worker JVMs. This is a configurable
+     * option for the language server on the client side.
+     */
+    private static final String OPT_INPROCESS = "inProcess";
+
+    /**
+     * The lowest level of the events recorded in the trace. This is a configurable option for the
+     * language server on the client side.
+     */
+    private static final String OPT_TRACELEVEL = "traceLevel";
+
     /**
      * The entry point of the application. Sets up and launches {@link CFLanguageServer}.
      *
@@ -46,12 +137,16 @@ public class ServerMain {
      *     a language server</a>
      */
     public static void main(String[] args) {
+        // Standard output carries the protocol, so anything else printed there, for example by a
+        // checker running in the server, goes to standard error.
+        PrintStream out = System.out;
+        System.setOut(System.err);
         try {
             Settings settings = getSettings(args);
             logger.info("Launching the Checker Framework language server");
             CFLanguageServer server = new CFLanguageServer(settings);
             Launcher<LanguageClient> launcher =
-                    LSPLauncher.createServerLauncher(server, System.in, System.out);
+                    LSPLauncher.createServerLauncher(server, System.in, out);
             LanguageClient client = launcher.getRemoteProxy();
             server.connect(client);
             Future<?> f = launcher.startListening();
@@ -81,6 +176,78 @@ public class ServerMain {
                 OPT_COMMANDLINEOPTIONS,
                 true,
                 "List of command line options that gets passed in to javac");
+        options.addOption(
+                OPT_WORKERS, OPT_WORKERS, true, "Number of worker processes running the checkers");
+        options.addOption(
+                OPT_DEBOUNCEMILLIS,
+                OPT_DEBOUNCEMILLIS,
+                true,
+                "Milliseconds without edits or saves after which files are checked");
+        options.addOption(
+                OPT_CACHEDIRECTORY,
+                OPT_CACHEDIRECTORY,
+                true,
+                "Directory of the persistent diagnostics cache; empty to disable the cache");
+        options.addOption(
+                OPT_DEPENDENTSLIMIT,
+                OPT_DEPENDENTSLIMIT,
+                true,
+                "Maximum number of dependent files re-checked after a save; 0 to disable");
+        options.addOption(
+                OPT_CHECKWORKSPACE,
+                OPT_CHECKWORKSPACE,
+                false,
+                "Check all sources in the workspace in the background");
+        options.addOption(
+                OPT_STREAMDIAGNOSTICS,
+                OPT_STREAMDIAGNOSTICS,
+                false,
+                "Publish diagnostics while a check is still running");
+        options.addOption(
+                OPT_CHECKTIMEOUTSECONDS,
+                OPT_CHECKTIMEOUTSECONDS,
+                true,
+                "Seconds a check may run before its worker is restarted; 0 to disable");
+        options.addOption(
+                OPT_RECYCLEAFTERCHECKS,
+                OPT_RECYCLEAFTERCHECKS,
+                true,
+                "Number of checks after which a worker is restarted; 0 to disable");
+        options.addOption(
+                OPT_WORKERHEAPLIMITMEGABYTES,
+                OPT_WORKERHEAPLIMITMEGABYTES,
+                true,
+                "Heap use in megabytes after which a worker is restarted");
+        options.addOption(
+                OPT_WORKERMAXHEAPMEGABYTES,
+                OPT_WORKERMAXHEAPMEGABYTES,
+                true,
+                "Maximum heap of a worker JVM in megabytes; 0 to leave it to the JVM");
+        options.addOption(
+                OPT_WORKERJVMOPTIONS,
+                OPT_WORKERJVMOPTIONS,
+                true,
+                "Options of the worker JVMs, replacing the default options");
+        options.addOption(
+                OPT_CLASSDATASHARING,
+                OPT_CLASSDATASHARING,
+                false,
+                "Start the worker JVMs from a class data sharing archive in the cache directory");
+        options.addOption(
+                OPT_REPORTTIMINGS,
+                OPT_REPORTTIMINGS,
+                false,
+                "Send the time spent in each javac phase and checker to the client");
+        options.addOption(
+                OPT_INPROCESS,
+                OPT_INPROCESS,
+                false,
+                "Run the checks in the language server instead of in worker JVMs");
+        options.addOption(
+                OPT_TRACELEVEL,
+                OPT_TRACELEVEL,
+                true,
+                "Lowest level of the events recorded in the trace, such as FINE, FINER or OFF");
         return options;
     }
 
@@ -108,6 +275,64 @@ public class ServerMain {
             cmo = cmd.getOptionValues(OPT_COMMANDLINEOPTIONS);
             logger.info("got cliOptions " + Arrays.toString(cmo));
         }
-        return new Settings(new Settings.Config(fp, Arrays.asList(checkers), Arrays.asList(cmo)));
+        Settings.Config config =
+                new Settings.Config(fp, Arrays.asList(checkers), Arrays.asList(cmo));
+        Integer workers = parseIntOption(cmd, OPT_WORKERS, "number of workers");
+        config.workers = workers != null ? workers : 0;
+        config.debounceMillis = parseIntOption(cmd, OPT_DEBOUNCEMILLIS, "debounce time");
+        if (cmd.hasOption(OPT_CACHEDIRECTORY)) {
+            config.cacheDirectory = cmd.getOptionValue(OPT_CACHEDIRECTORY);
+            logger.info("got cacheDirectory " + config.cacheDirectory);
+        }
+        config.dependentsLimit = parseIntOption(cmd, OPT_DEPENDENTSLIMIT, "dependents limit");
+        config.checkWorkspace = cmd.hasOption(OPT_CHECKWORKSPACE);
+        config.streamDiagnostics = cmd.hasOption(OPT_STREAMDIAGNOSTICS);
+        config.checkTimeoutSeconds = parseIntOption(cmd, OPT_CHECKTIMEOUTSECONDS, "check timeout");
+        config.recycleAfterChecks = parseIntOption(cmd, OPT_RECYCLEAFTERCHECKS, "number of checks");
+        config.workerHeapLimitMegabytes =
+                parseIntOption(cmd, OPT_WORKERHEAPLIMITMEGABYTES, "heap limit");
+        config.workerMaxHeapMegabytes =
+                parseIntOption(cmd, OPT_WORKERMAXHEAPMEGABYTES, "maximum heap");
+        if (cmd.hasOption(OPT_WORKERJVMOPTIONS)) {
+            config.workerJvmOptions = Arrays.asList(cmd.getOptionValues(OPT_WORKERJVMOPTIONS));
+            logger.info("got workerJvmOptions " + config.workerJvmOptions);
+        }
+        config.classDataSharing = cmd.hasOption(OPT_CLASSDATASHARING);
+        config.reportTimings = cmd.hasOption(OPT_REPORTTIMINGS);
+        config.inProcess = cmd.hasOption(OPT_INPROCESS);
+        if (cmd.hasOption(OPT_TRACELEVEL)) {
+            config.traceLevel = cmd.getOptionValue(OPT_TRACELEVEL);
+            try {
+                Level.parse(config.traceLevel);
+            } catch (IllegalArgumentException e) {
+                throw new ParseException("Invalid trace level: " + config.traceLevel);
+            }
+            logger.info("got traceLevel " + config.traceLevel);
+        }
+        return new Settings(config);
+    }
+
+    /**
+     * Returns the value of an integer option, and logs it.
+     *
+     * @param cmd the parsed command line
+     * @param opt the name of the option
+     * @param description what the option sets, for the error message
+     * @return the value, or {@code null} if the option is not given
+     * @throws ParseException if the value is not an integer
+     */
+    private static Integer parseIntOption(CommandLine cmd, String opt, String description)
+            throws ParseException {
+        if (!cmd.hasOption(opt)) {
+            return null;
+        }
+        int value;
+        try {
+            value = Integer.parseInt(cmd.getOptionValue(opt));
+        } catch (NumberFormatException e) {
+            throw new ParseException("Invalid " + description + ": " + e.getMessage());
+        }
+        logger.info("got " + opt + " " + value);
+        return value;
     }
 }
@@ -2,11 +2,28 @@ package org.checkerframework.languageserver;
 
 import com.google.gson.annotations.SerializedName;
 
+import java.io.File;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 
 /** Setting class for language server setting and used in {@link CFLanguageServer}. */
 class Settings {
+    /**
+     * The JVM options of the workers unless configured otherwise. The serial collector keeps each
+     * worker to one GC thread and a small footprint, as several workers share the machine with the
+     * editor, and the perf data file is not needed.
+     */
+    static final List<String> DEFAULT_WORKER_JVM_OPTIONS =
+            Collections.unmodifiableList(Arrays.asList("-XX:+UseSerialGC", "-XX:-UsePerfData"));
+
+    /** The maximum heap of a worker in megabytes unless configured otherwise. */
+    static final int DEFAULT_WORKER_MAX_HEAP_MEGABYTES = 1024;
+
     /** The configuration. */
     @SerializedName(CFLanguageServer.SERVER_NAME)
     final Config config;
@@ -30,7 +47,91 @@ class Settings {
         /** The commandLine options has been added for the language server. */
         final List<String> commandLineOptions;
 
-        /** Default constructor for language server configuration. */
+        /** The number of JavacWrapper worker processes; non-positive means the default. */
+        int workers;
+
+        /**
+         * The quiet window in milliseconds after the last edit or save before files are checked;
+         * {@code null} means the default.
+         */
+        Integer debounceMillis;
+
+        /**
+         * The directory of the persistent diagnostics cache; {@code null} means the default, and
+         * the empty string disables the cache.
+         */
+        String cacheDirectory;
+
+        /**
+         * The maximum number of dependents re-checked after a save; {@code null} means the default,
+         * and zero disables re-checking dependents.
+         */
+        Integer dependentsLimit;
+
+        /** Whether all sources in the workspace are checked in the background. */
+        boolean checkWorkspace;
+
+        /** Whether the diagnostics found so far by a running check are published. */
+        boolean streamDiagnostics;
+
+        /**
+         * The longest time in seconds a check may run before its worker is restarted; {@code null}
+         * means the default, and zero disables the limit.
+         */
+        Integer checkTimeoutSeconds;
+
+        /**
+         * The number of checks after which a worker is restarted; {@code null} means the default,
+         * and zero disables the limit.
+         */
+        Integer recycleAfterChecks;
+
+        /**
+         * The heap use in megabytes after which a worker is restarted; {@code null} or zero
+         * disables the limit.
+         */
+        Integer workerHeapLimitMegabytes;
+
+        /**
+         * The maximum heap of a worker JVM in megabytes; {@code null} means the default, and zero
+         * leaves the heap to the JVM.
+         */
+        Integer workerMaxHeapMegabytes;
+
+        /**
+         * Further options of the worker JVMs, such as the garbage collector; {@code null} means the
+         * defaults.
+         */
+        List<String> workerJvmOptions;
+
+        /**
+         * Whether the workers share the data of the classes they load through an archive in the
+         * cache directory.
+         */
+        boolean classDataSharing;
+
+        /**
+         * Whether the time each check spends in each javac phase and each checker is sent to the
+         * client.
+         */
+        boolean reportTimings;
+
+        /**
+         * Whether the checks run in the language server instead of in worker JVMs, see {@link
+         * InProcessWrapper}.
+         */
+        boolean inProcess;
+
+        /**
+         * The lowest level of the events recorded in the {@link Trace}, such as {@code FINE};
+         * {@code null} means the default.
+         */
+        String traceLevel;
+
+        /**
+         * Default constructor for language server configuration. The further settings are set by
+         * name afterwards, and those left unset take their defaults.
+         */
         Config(String frameworkPath, List<String> checkers, List<String> commandLineOptions) {
             this.frameworkPath = frameworkPath;
             this.checkers = checkers;
@@ -57,4 +158,145 @@ class Settings {
     List<String> getCommandLineOptions() {
         return config.commandLineOptions;
     }
+
+    /**
+     * Getter for the number of worker processes. Each worker is a separate JVM, so by default only
+     * half of the available processors are used, and at most four.
+     */
+    int getWorkers() {
+        if (config.workers > 0) {
+            return config.workers;
+        }
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /** Getter for the quiet window in milliseconds before files are checked. */
+    long getDebounceMillis() {
+        if (config.debounceMillis != null && config.debounceMillis >= 0) {
+            return config.debounceMillis;
+        }
+        return 300;
+    }
+
+    /**
+     * Getter for the directory of the persistent diagnostics cache.
+     *
+     * @return the cache directory, or {@code null} if the cache is disabled
+     */
+    File getCacheDirectory() {
+        if (config.cacheDirectory == null) {
+            return defaultCacheDirectory();
+        }
+        if (config.cacheDirectory.isEmpty()) {
+            return null;
+        }
+        return new File(config.cacheDirectory);
+    }
+
+    /**
+     * Getter for the directory of the class data sharing archives of the workers, which lies in the
+     * cache directory, or in the default one if the diagnostics cache is disabled.
+     *
+     * @return the archive directory, or {@code null} if class data sharing is disabled
+     */
+    File getSharedArchiveDirectory() {
+        if (!config.classDataSharing) {
+            return null;
+        }
+        File cache = getCacheDirectory();
+        return new File(cache != null ? cache : defaultCacheDirectory(), "cds");
+    }
+
+    /** Getter for whether the timings of each check are sent to the client. */
+    boolean getReportTimings() {
+        return config.reportTimings;
+    }
+
+    /** Getter for whether the checks run in the language server. */
+    boolean getInProcess() {
+        return config.inProcess;
+    }
+
+    /** Getter for the lowest level of the events recorded in the trace. */
+    Level getTraceLevel() {
+        if (config.traceLevel != null) {
+            try {
+                return Level.parse(config.traceLevel);
+            } catch (IllegalArgumentException e) {
+                // Fall back to the default.
+            }
+        }
+        return Trace.DEFAULT_LEVEL;
+    }
+
+    /** Returns the default directory of the persistent caches. */
+    private static File defaultCacheDirectory() {
+        return Paths.get(
+                        System.getProperty("user.home"),
+                        ".cache",
+                        "checker-framework-languageserver")
+                .toFile();
+    }
+
+    /** Getter for the maximum number of dependents re-checked after a save. */
+    int getDependentsLimit() {
+        if (config.dependentsLimit != null && config.dependentsLimit >= 0) {
+            return config.dependentsLimit;
+        }
+        return 20;
+    }
+
+    /** Getter for whether all sources in the workspace are checked in the background. */
+    boolean getCheckWorkspace() {
+        return config.checkWorkspace;
+    }
+
+    /** Getter for whether the diagnostics found so far by a running check are published. */
+    boolean getStreamDiagnostics() {
+        return config.streamDiagnostics;
+    }
+
+    /** Getter for the longest time in milliseconds a check may run; 0 means no limit. */
+    long getCheckTimeoutMillis() {
+        if (config.checkTimeoutSeconds != null && config.checkTimeoutSeconds >= 0) {
+            return TimeUnit.SECONDS.toMillis(config.checkTimeoutSeconds);
+        }
+        return TimeUnit.MINUTES.toMillis(5);
+    }
+
+    /** Getter for the number of checks after which a worker is restarted; 0 means no limit. */
+    int getRecycleAfterChecks() {
+        if (config.recycleAfterChecks != null && config.recycleAfterChecks >= 0) {
+            return config.recycleAfterChecks;
+        }
+        return 500;
+    }
+
+    /**
+     * Getter for the options of the worker JVMs: the maximum heap, followed by the configured or
+     * default further options, so that an {@code -Xmx} among those wins.
+     */
+    List<String> getWorkerJvmOptions() {
+        List<String> options = new ArrayList<>();
+        int maxHeap =
+                config.workerMaxHeapMegabytes != null && config.workerMaxHeapMegabytes >= 0
+                        ? config.workerMaxHeapMegabytes
+                        : DEFAULT_WORKER_MAX_HEAP_MEGABYTES;
+        if (maxHeap > 0) {
+            options.add("-Xmx" + maxHeap + "m");
+        }
+        options.addAll(
+                config.workerJvmOptions != null
+                        ? config.workerJvmOptions
+                        : DEFAULT_WORKER_JVM_OPTIONS);
+        return options;
+    }
+
+    /** Getter for the heap use in bytes after which a worker is restarted; 0 means no limit. */
+    long getWorkerHeapLimit() {
+        if (config.workerHeapLimitMegabytes != null && config.workerHeapLimitMegabytes > 0) {
+            return (long) config.workerHeapLimitMegabytes << 20;
+        }
+        return 0;
+    }
 }
@@ -0,0 +1,185 @@
+package org.checkerframework.languageserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A class data sharing archive of the classes the wrappers load, which lets a wrapper map javac and
+ * the checkers into memory instead of loading and verifying them from their jars at every start.
+ *
+ * <p>The archive is a dynamic archive, which the JVM writes as it exits, so the wrappers need Java
+ * 13 or later. It is named by a hash of the checker jar, the options of the wrappers with the size
+ * and modification time of every archive they name, and the version of the Java running them; the
+ * JVM ignores an archive made with any of them different. While there is no archive yet, one
+ * wrapper records it to a temporary file, which is renamed to the archive once the wrapper has
+ * exited, so that no wrapper ever maps a partial archive.
+ */
+final class SharedArchive {
+    /** The logger for issuing information and warnings. */
+    private static final Logger logger = Logger.getLogger(SharedArchive.class.getName());
+
+    /** The first Java version that writes dynamic archives. */
+    private static final int MIN_JAVA_VERSION = 13;
+
+    /** How long to wait for the version of the Java running the wrappers. */
+    private static final long VERSION_TIMEOUT_MILLIS = 10_000;
+
+    /** Finds the version in the output of {@code java -version}. */
+    private static final Pattern VERSION = Pattern.compile("version \"(\\d+)(?:\\.(\\d+))?");
+
+    /**
+     * Sends the warnings of the JVM, for example about an archive it cannot use, to the standard
+     * error of the wrapper, as its standard output carries the results.
+     */
+    private static final List<String> LOG_OPTIONS =
+            Arrays.asList("-Xlog:disable", "-Xlog:all=warning,cds*=error:stderr");
+
+    /** The file of the archive. */
+    private final Path archive;
+
+    /** Whether a wrapper has been asked to record the archive. */
+    private boolean recordingStarted;
+
+    /**
+     * Default constructor for shared archive.
+     *
+     * @param archive the file of the archive
+     */
+    private SharedArchive(Path archive) {
+        this.archive = archive;
+    }
+
+    /**
+     * Opens the archive for the wrappers started with the given options.
+     *
+     * @param directory the directory of the archives
+     * @param checkerPath the path of the checker jar
+     * @param options the command starting a wrapper, beginning with the Java executable
+     * @return the archive, or {@code null} if the wrappers cannot use one
+     */
+    static SharedArchive open(File directory, String checkerPath, List<String> options) {
+        try {
+            String version = javaVersion(options.get(0));
+            Matcher m = VERSION.matcher(version);
+            if (!m.find()) {
+                logger.warning("Unknown Java version, not sharing class data: " + version);
+                return null;
+            }
+            int feature = Integer.parseInt(m.group(1));
+            if (feature == 1 && m.group(2) != null) {
+                feature = Integer.parseInt(m.group(2));
+            }
+            if (feature < MIN_JAVA_VERSION) {
+                logger.info("Java " + feature + " cannot write a class data sharing archive");
+                return null;
+            }
+            Hasher hasher =
+                    Hashing.sha256()
+                            .newHasher()
+                            .putString(version, UTF_8)
+                            .putByte((byte) 0)
+                            .putString(SourceKeys.fingerprint(options), UTF_8)
+                            .putByte((byte) 0)
+                            .putBytes(
+                                    com.google.common.io.Files.asByteSource(new File(checkerPath))
+                                            .hash(Hashing.sha256())
+                                            .asBytes());
+            Path dir = directory.toPath();
+            Files.createDirectories(dir);
+            return new SharedArchive(dir.resolve(hasher.hash() + ".jsa"));
+        } catch (IOException e) {
+            logger.warning("Failed to set up class data sharing: " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Runs {@code java -version}.
+     *
+     * @param java the Java executable
+     * @return the output, which names the version, vendor and build of the JVM
+     */
+    private static String javaVersion(String java) throws IOException {
+        Process p = new ProcessBuilder(java, "-version").redirectErrorStream(true).start();
+        try {
+            String output = new String(ByteStreams.toByteArray(p.getInputStream()), UTF_8);
+            if (!p.waitFor(VERSION_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new IOException(java + " -version did not exit in time");
+            }
+            return output.trim();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            p.destroy();
+        }
+    }
+
+    /**
+     * Returns the temporary file that a wrapper about to start should record the archive to. Only
+     * the first wrapper started while there is no archive records it.
+     *
+     * @return the temporary file, or {@code null} if the wrapper should not record the archive
+     */
+    synchronized Path record() {
+        if (recordingStarted || Files.isRegularFile(archive)) {
+            return null;
+        }
+        recordingStarted = true;
+        return archive.resolveSibling(archive.getFileName() + "." + UUID.randomUUID() + ".tmp");
+    }
+
+    /**
+     * Returns the JVM options of a wrapper, which either record or use the archive.
+     *
+     * @param recording the file returned by {@link #record}, or {@code null}
+     * @return the options
+     */
+    List<String> options(Path recording) {
+        List<String> opts = new ArrayList<>(LOG_OPTIONS);
+        if (recording != null) {
+            opts.add("-XX:ArchiveClassesAtExit=" + recording);
+        } else if (Files.isRegularFile(archive)) {
+            opts.add("-XX:SharedArchiveFile=" + archive);
+        }
+        return opts;
+    }
+
+    /**
+     * Installs the archive recorded by a wrapper that has exited. An archive left by a wrapper that
+     * did not exit normally may be partial, and is deleted.
+     *
+     * @param recording the file the wrapper recorded the archive to
+     * @param complete whether the wrapper exited normally
+     */
+    void recorded(Path recording, boolean complete) {
+        try {
+            if (complete && Files.isRegularFile(recording) && Files.size(recording) > 0) {
+                Files.move(recording, archive, StandardCopyOption.ATOMIC_MOVE);
+                logger.info("Recorded the class data sharing archive " + archive);
+            } else {
+                Files.deleteIfExists(recording);
+                logger.warning("Failed to record the class data sharing archive " + archive);
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to install the class data sharing archive: " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package org.checkerframework.languageserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes the keys that identify the content of a source file together with the configuration it
+ * is checked with. Two checks of a file with the same key give the same diagnostics, as far as the
+ * file itself is concerned, so the key names both {@link DiagnosticsCache} entries and the result
+ * IDs of pulled diagnostics.
+ *
+ * <p>A key is a hash of the configuration, the path of the file and its content. The configuration
+ * covers the options given to the checkers, including the checker list, the command line options
+ * and the class path, together with the size and modification time of every archive named in them,
+ * and the Java version.
+ *
+ * <p>The diagnostics of a file also depend on the class directories on the class path, which are
+ * rebuilt while the server runs, and on the other source files it refers to. Those are not part of
+ * the key; the {@link DiagnosticsCache} stores their {@link #classDirectories} fingerprint and
+ * {@link #digest digests} with an entry instead, to check them when the entry is read.
+ */
+final class SourceKeys {
+    /** The options followed by a path list that may name class directories. */
+    private static final List<String> PATH_OPTIONS =
+            Arrays.asList(
+                    "-cp", "-classpath", "--class-path", "-processorpath", "--processor-path");
+
+    /** The fingerprint of the configuration, which is part of every key. */
+    private final String configuration;
+
+    /** The class directories named in the class path options. */
+    private final List<Path> classDirectories = new ArrayList<>();
+
+    /**
+     * Default constructor for source keys.
+     *
+     * @param options the options the checks run with
+     */
+    SourceKeys(List<String> options) {
+        this.configuration = fingerprint(options);
+        for (int i = 0; i + 1 < options.size(); i++) {
+            if (PATH_OPTIONS.contains(options.get(i))) {
+                for (String part : options.get(i + 1).split(File.pathSeparator)) {
+                    File f = new File(part);
+                    if (f.isDirectory()) {
+                        classDirectories.add(f.toPath());
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the fingerprint of the class directories named in the class path options: the number
+     * and total size of the files in them, and their latest modification time.
+     *
+     * @return the fingerprint, or {@code null} if a directory cannot be read
+     */
+    String classDirectories() {
+        long[] stats = new long[3];
+        try {
+            for (Path directory : classDirectories) {
+                Files.walkFileTree(
+                        directory,
+                        new SimpleFileVisitor<Path>() {
+                            @Override
+                            public FileVisitResult visitFile(
+                                    Path file, BasicFileAttributes attributes) {
+                                stats[0]++;
+                                stats[1] += attributes.size();
+                                stats[2] =
+                                        Math.max(
+                                                stats[2], attributes.lastModifiedTime().toMillis());
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return stats[0] + ":" + stats[1] + ":" + stats[2];
+    }
+
+    /**
+     * Computes the digest of the content of a source file that another file refers to.
+     *
+     * @param content the content of the file, or {@code null} if it does not exist
+     * @return the digest
+     */
+    static String digest(byte[] content) {
+        if (content == null) {
+            return "";
+        }
+        return Hashing.sha256().hashBytes(content).toString();
+    }
+
+    /**
+     * Computes the key of a file whose content is held in memory.
+     *
+     * @param path the canonical path of the file
+     * @param text the content of the file
+     * @return the key of the file
+     */
+    String key(String path, String text) {
+        return newHasher(path).putString(text, UTF_8).hash().toString();
+    }
+
+    /**
+     * Computes the key of a file read from disk.
+     *
+     * @param path the canonical path of the file
+     * @param content the content of the file
+     * @return the key of the file
+     */
+    String key(String path, byte[] content) {
+        return newHasher(path).putBytes(content).hash().toString();
+    }
+
+    /** Starts a key with the configuration and the given path. */
+    private Hasher newHasher(String path) {
+        return Hashing.sha256()
+                .newHasher()
+                .putString(configuration, UTF_8)
+                .putByte((byte) 0)
+                .putString(path, UTF_8)
+                .putByte((byte) 0);
+    }
+
+    /**
+     * Computes the fingerprint of the configuration: the options, the size and modification time of
+     * every file they name, directly or in a path list, and the Java version.
+     */
+    static String fingerprint(List<String> options) {
+        StringBuilder sb = new StringBuilder(System.getProperty("java.version"));
+        for (String o : options) {
+            sb.append('\0').append(o);
+            for (String part : o.split(File.pathSeparator)) {
+                File f = new File(part);
+                if (f.isFile()) {
+                    sb.append('\0').append(f.lastModified()).append(':').append(f.length());
+                }
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,64 @@
+package org.checkerframework.languageserver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The references of a source file, sent from {@link JavacWrapper} to {@link CheckExecutor} with the
+ * result of a check and kept with the file in the {@link DiagnosticsCache}: the top-level types the
+ * file declares and the top-level types it refers to. They are the edges of the {@link
+ * DependencyGraph}. The source files that the referenced types were compiled from in the same check
+ * are recorded as well, for the {@link DiagnosticsCache} to notice when they change.
+ */
+public class SourceReferences {
+    /** The file URI. */
+    private final String fileUri;
+
+    /** The qualified names of the top-level types declared in the file. */
+    private final List<String> declared;
+
+    /** The qualified names of the top-level types referred to by the file. */
+    private final List<String> referenced;
+
+    /**
+     * The URIs of the other source files that the referenced types were compiled from. It is {@code
+     * null} in entries cached before it was recorded.
+     */
+    private final List<String> sources;
+
+    /** Default constructor for SourceReferences. */
+    public SourceReferences(
+            String fileUri,
+            Collection<String> declared,
+            Collection<String> referenced,
+            Collection<String> sources) {
+        this.fileUri = fileUri;
+        this.declared = new ArrayList<>(declared);
+        this.referenced = new ArrayList<>(referenced);
+        this.sources = new ArrayList<>(sources);
+    }
+
+    /** Getter for the file URI. */
+    public String getFileUri() {
+        return fileUri;
+    }
+
+    /** Getter for the qualified names of the top-level types declared in the file. */
+    public List<String> getDeclared() {
+        return declared;
+    }
+
+    /** Getter for the qualified names of the top-level types referred to by the file. */
+    public List<String> getReferenced() {
+        return referenced;
+    }
+
+    /**
+     * Getter for the URIs of the other source files that the referenced types were compiled from.
+     */
+    public List<String> getSources() {
+        return sources != null ? sources : Collections.emptyList();
+    }
+}
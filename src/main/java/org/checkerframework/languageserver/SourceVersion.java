@@ -0,0 +1,34 @@
+package org.checkerframework.languageserver;
+
+/**
+ * The content a file was checked with, as passed to the {@link Publisher} with the diagnostics of
+ * the file.
+ */
+final class SourceVersion {
+    /** The version of the document, or {@code null} if the file was read from disk. */
+    private final Integer version;
+
+    /** The {@link SourceKeys} key of the content and configuration. */
+    private final String key;
+
+    /**
+     * Default constructor for SourceVersion.
+     *
+     * @param version the version of the document, or {@code null} for the file on disk
+     * @param key the key of the content and configuration
+     */
+    SourceVersion(Integer version, String key) {
+        this.version = version;
+        this.key = key;
+    }
+
+    /** Getter for the version of the document; {@code null} means the file on disk. */
+    Integer getVersion() {
+        return version;
+    }
+
+    /** Getter for the key of the content and configuration. */
+    String getKey() {
+        return key;
+    }
+}
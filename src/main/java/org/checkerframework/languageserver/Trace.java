@@ -0,0 +1,239 @@
+package org.checkerframework.languageserver;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A ring buffer of the recent events of the server, such as the notifications of the client and the
+ * progress of every check, for the events that happen too often to be logged.
+ *
+ * <p>Recording an event is cheap: an event below the level of the trace is dropped before anything
+ * is allocated, and an event that is kept stores its format string and arguments, which are only
+ * formatted when the trace is dumped. The arguments should therefore be small values such as ids,
+ * URIs and counts, and not, for example, the content of a document. Every event carries the id of
+ * the check it belongs to, or 0, so that the history of a check can be dumped when it fails. The
+ * whole trace is dumped on request of the client, see {@link CFWorkspaceService#executeCommand}.
+ */
+final class Trace {
+    /** The level of a trace unless set otherwise. */
+    static final Level DEFAULT_LEVEL = Level.FINE;
+
+    /** The trace of the server. */
+    static final Trace SERVER = new Trace(4096);
+
+    /** Formats the time of an event. */
+    private static final DateTimeFormatter TIME =
+            DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    /** The events, where the event with sequence number {@code n} is at {@code n % length}. */
+    private final AtomicReferenceArray<Event> events;
+
+    /** The sequence number of the next event. */
+    private final AtomicLong next = new AtomicLong();
+
+    /** The value of the lowest level that is recorded. */
+    private volatile int threshold = DEFAULT_LEVEL.intValue();
+
+    /**
+     * Default constructor for trace.
+     *
+     * @param capacity the number of events kept
+     */
+    Trace(int capacity) {
+        events = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Setter for the lowest level that is recorded. {@link Level#OFF} records nothing.
+     *
+     * @param level the level
+     */
+    void setLevel(Level level) {
+        threshold = level.intValue();
+    }
+
+    /**
+     * Returns true if events of the given level are recorded.
+     *
+     * @param level the level
+     * @return true if the level is at least that of the trace
+     */
+    boolean isEnabled(Level level) {
+        return level.intValue() >= threshold && threshold != Level.OFF.intValue();
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param level the level of the event
+     * @param check the id of the check the event belongs to, or 0
+     * @param message the message
+     */
+    void event(Level level, long check, String message) {
+        if (isEnabled(level)) {
+            record(level, check, "%s", new Object[] {message});
+        }
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param level the level of the event
+     * @param check the id of the check the event belongs to, or 0
+     * @param format the message, a format string for {@link String#format}
+     * @param arg the argument of the format string
+     */
+    void event(Level level, long check, String format, Object arg) {
+        if (isEnabled(level)) {
+            record(level, check, format, new Object[] {arg});
+        }
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param level the level of the event
+     * @param check the id of the check the event belongs to, or 0
+     * @param format the message, a format string for {@link String#format}
+     * @param arg1 the first argument of the format string
+     * @param arg2 the second argument of the format string
+     */
+    void event(Level level, long check, String format, Object arg1, Object arg2) {
+        if (isEnabled(level)) {
+            record(level, check, format, new Object[] {arg1, arg2});
+        }
+    }
+
+    /**
+     * Records an event.
+     *
+     * @param level the level of the event
+     * @param check the id of the check the event belongs to, or 0
+     * @param format the message, a format string for {@link String#format}
+     * @param arg1 the first argument of the format string
+     * @param arg2 the second argument of the format string
+     * @param arg3 the third argument of the format string
+     */
+    void event(Level level, long check, String format, Object arg1, Object arg2, Object arg3) {
+        if (isEnabled(level)) {
+            record(level, check, format, new Object[] {arg1, arg2, arg3});
+        }
+    }
+
+    /** Stores an event in the slot of its sequence number, replacing the oldest event. */
+    private void record(Level level, long check, String format, Object[] args) {
+        long n = next.getAndIncrement();
+        Event e =
+                new Event(
+                        n,
+                        System.currentTimeMillis(),
+                        Thread.currentThread().getName(),
+                        level,
+                        check,
+                        format,
+                        args);
+        events.set((int) (n % events.length()), e);
+    }
+
+    /**
+     * Formats the recorded events, oldest first.
+     *
+     * @param check the id of the check whose events are returned, or -1 for all events
+     * @return the events, one line each
+     */
+    List<String> dump(long check) {
+        long end = next.get();
+        List<String> lines = new ArrayList<>();
+        for (long n = Math.max(0, end - events.length()); n < end; n++) {
+            Event e = events.get((int) (n % events.length()));
+            // A slot may already hold a newer event, which is listed in its own turn.
+            if (e != null && e.sequence == n && (check < 0 || e.check == check)) {
+                lines.add(e.toString());
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Logs the recorded events of a check as a warning, for example when the check failed.
+     *
+     * @param logger the logger
+     * @param check the id of the check
+     * @param reason what happened to the check
+     */
+    void dumpToLog(Logger logger, long check, String reason) {
+        List<String> lines = dump(check);
+        lines.add(0, reason + "; trace of check " + check + ":");
+        logger.warning(String.join(System.lineSeparator(), lines));
+    }
+
+    /** An event, whose message is formatted when the trace is dumped. */
+    private static class Event {
+        /** The sequence number of the event. */
+        private final long sequence;
+
+        /** The time of the event, in milliseconds since the epoch. */
+        private final long millis;
+
+        /** The name of the thread that recorded the event. */
+        private final String thread;
+
+        /** The level of the event. */
+        private final Level level;
+
+        /** The id of the check the event belongs to, or 0. */
+        private final long check;
+
+        /** The format string of the message. */
+        private final String format;
+
+        /** The arguments of the format string. */
+        private final Object[] args;
+
+        /** Default constructor for Event. */
+        Event(
+                long sequence,
+                long millis,
+                String thread,
+                Level level,
+                long check,
+                String format,
+                Object[] args) {
+            this.sequence = sequence;
+            this.millis = millis;
+            this.thread = thread;
+            this.level = level;
+            this.check = check;
+            this.format = format;
+            this.args = args;
+        }
+
+        @Override
+        public String toString() {
+            String message;
+            try {
+                message = String.format(Locale.ROOT, format, args);
+            } catch (IllegalFormatException ex) {
+                message = format + " " + Arrays.toString(args);
+            }
+            return TIME.format(Instant.ofEpochMilli(millis))
+                    + " ["
+                    + thread
+                    + "] "
+                    + level
+                    + (check != 0 ? " check " + check : "")
+                    + ": "
+                    + message;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.checkerframework.languageserver;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The type information of a file, as reported by the Checker Framework's type information
+ * presenter, indexed by range for hover lookups. An index is built once per check result and not
+ * changed afterwards.
+ *
+ * <p>A position (line, column) is packed into a {@code long}, with the line in the high and the
+ * column in the low 32 bits, so that positions compare like the packed numbers. Ranges nest, for
+ * example an argument inside a method call, so the index is a table of elementary segments: the
+ * boundaries of all ranges cut the file into segments, and each segment records the innermost range
+ * containing it. A lookup is then a binary search over the segment starts. Ranges with the same
+ * bounds form one group, whose messages are returned together. The messages are interned, as the
+ * same types are reported over and over.
+ */
+final class TypeInfoIndex {
+    /** Shares equal messages between all indexes. */
+    private static final Interner<String> MESSAGES = Interners.newWeakInterner();
+
+    /** An index without type information. */
+    static final TypeInfoIndex EMPTY =
+            new TypeInfoIndex(new long[0], new int[0], new int[] {0}, new String[0]);
+
+    /**
+     * The packed start of each segment, in ascending order. A segment ends where the next starts.
+     */
+    private final long[] segmentStarts;
+
+    /** The group of the innermost range containing each segment, or -1 if there is none. */
+    private final int[] segmentGroups;
+
+    /** The offset of the first message of each group, followed by the number of messages. */
+    private final int[] groupOffsets;
+
+    /** The messages of all groups. */
+    private final String[] messages;
+
+    /** Constructor for the arrays of the index, as documented on the fields. */
+    private TypeInfoIndex(
+            long[] segmentStarts, int[] segmentGroups, int[] groupOffsets, String[] messages) {
+        this.segmentStarts = segmentStarts;
+        this.segmentGroups = segmentGroups;
+        this.groupOffsets = groupOffsets;
+        this.messages = messages;
+    }
+
+    /**
+     * Packs a position into a {@code long}.
+     *
+     * @param line the line
+     * @param col the column
+     * @return the packed position
+     */
+    static long pack(int line, int col) {
+        return ((long) line << 32) | (col & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Returns the type information of the innermost range containing a position. If several
+     * messages were reported for that range, all of them are returned, in the order they were
+     * reported.
+     *
+     * @param line the line of the position
+     * @param col the column of the position
+     * @return the messages, or an empty list if no range contains the position
+     */
+    List<String> get(int line, int col) {
+        long pos = pack(line, col);
+        int low = 0;
+        int high = segmentStarts.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (segmentStarts[mid] <= pos) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        // The segment is the last one starting at or before the position.
+        if (low == 0 || segmentGroups[low - 1] < 0) {
+            return Collections.emptyList();
+        }
+        int group = segmentGroups[low - 1];
+        int first = groupOffsets[group];
+        int last = groupOffsets[group + 1];
+        if (last - first == 1) {
+            return Collections.singletonList(messages[first]);
+        }
+        return Collections.unmodifiableList(Arrays.asList(messages).subList(first, last));
+    }
+
+    /** Collects the ranges of a file and builds its index. */
+    static class Builder {
+        /** The packed starts of the ranges added so far. */
+        private long[] starts = new long[16];
+
+        /** The packed ends of the ranges added so far. */
+        private long[] ends = new long[16];
+
+        /** The messages of the ranges added so far. */
+        private final List<String> messages = new ArrayList<>();
+
+        /**
+         * Adds the type information of a range.
+         *
+         * @param startLine the line of the start of the range
+         * @param startCol the column of the start of the range
+         * @param endLine the line of the inclusive end of the range
+         * @param endCol the column of the inclusive end of the range
+         * @param message the type information
+         */
+        void add(int startLine, int startCol, int endLine, int endCol, String message) {
+            int n = messages.size();
+            if (n == starts.length) {
+                starts = Arrays.copyOf(starts, n * 2);
+                ends = Arrays.copyOf(ends, n * 2);
+            }
+            starts[n] = pack(startLine, startCol);
+            ends[n] = pack(endLine, endCol);
+            messages.add(MESSAGES.intern(message));
+        }
+
+        /** Returns true if no range has been added. */
+        boolean isEmpty() {
+            return messages.isEmpty();
+        }
+
+        /**
+         * Builds the index of the ranges added so far.
+         *
+         * @return the index
+         */
+        TypeInfoIndex build() {
+            int n = messages.size();
+            if (n == 0) {
+                return EMPTY;
+            }
+            long[] s = starts;
+            long[] e = ends;
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            // By start, then outermost first; the sort is stable, so equal ranges keep the order
+            // in which they were reported.
+            Arrays.sort(
+                    order,
+                    (a, b) -> s[a] != s[b] ? Long.compare(s[a], s[b]) : Long.compare(e[b], e[a]));
+
+            // Group equal ranges, in sorted order.
+            String[] groupedMessages = new String[n];
+            int[] groupOffsets = new int[n + 1];
+            long[] groupStarts = new long[n];
+            long[] groupEnds = new long[n];
+            int groups = 0;
+            for (int i = 0; i < n; i++) {
+                int r = order[i];
+                if (groups == 0
+                        || s[r] != groupStarts[groups - 1]
+                        || e[r] != groupEnds[groups - 1]) {
+                    groupStarts[groups] = s[r];
+                    groupEnds[groups] = e[r];
+                    groupOffsets[groups] = i;
+                    groups++;
+                }
+                groupedMessages[i] = messages.get(r);
+            }
+            groupOffsets[groups] = n;
+
+            // Every range starts a segment, and ends one right after its inclusive end.
+            long[] bounds = new long[2 * groups];
+            for (int g = 0; g < groups; g++) {
+                bounds[2 * g] = groupStarts[g];
+                bounds[2 * g + 1] = groupEnds[g] + 1;
+            }
+            Arrays.sort(bounds);
+
+            // Sweep the bounds with a stack of the ranges containing the current segment, the
+            // innermost on top. A range that ended below the top is dropped once it surfaces.
+            long[] segmentStarts = new long[bounds.length];
+            int[] segmentGroups = new int[bounds.length];
+            int segments = 0;
+            int[] stack = new int[groups];
+            int depth = 0;
+            int next = 0;
+            for (int b = 0; b < bounds.length; b++) {
+                long bound = bounds[b];
+                if (b > 0 && bound == bounds[b - 1]) {
+                    continue;
+                }
+                while (next < groups && groupStarts[next] <= bound) {
+                    stack[depth++] = next++;
+                }
+                while (depth > 0 && groupEnds[stack[depth - 1]] < bound) {
+                    depth--;
+                }
+                int group = depth > 0 ? stack[depth - 1] : -1;
+                if (segments > 0 && segmentGroups[segments - 1] == group) {
+                    continue;
+                }
+                segmentStarts[segments] = bound;
+                segmentGroups[segments] = group;
+                segments++;
+            }
+            return new TypeInfoIndex(
+                    Arrays.copyOf(segmentStarts, segments),
+                    Arrays.copyOf(segmentGroups, segments),
+                    Arrays.copyOf(groupOffsets, groups + 1),
+                    groupedMessages);
+        }
+    }
+}
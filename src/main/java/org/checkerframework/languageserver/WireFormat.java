@@ -0,0 +1,478 @@
+package org.checkerframework.languageserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary format of the messages between {@link CheckExecutor} and {@link JavacWrapper}.
+ *
+ * <p>Every message is a frame: the length of the frame body as an {@code int}, followed by the
+ * body, which starts with the type of the frame as a {@code byte}. A {@link CheckRequest} is sent
+ * as a {@link #REQUEST} or {@link #CANCEL} frame, and a {@link CFDiagnosticList} as a {@link
+ * #PARTIAL} frame while the check runs and a {@link #RESULT} frame once it ends. Frames are decoded
+ * straight from the stream, so a large result is never held as one string. The reader checks every
+ * length, count and string index against the frame, checks that a frame is decoded to its last
+ * byte, and skips frames of types it does not know.
+ *
+ * <p>Strings that repeat across diagnostics and checks, such as file URIs, diagnostic kinds and
+ * codes, and type names, are interned: the first occurrence on a stream carries the string and
+ * assigns it the next index in the string table of the stream, and later occurrences only carry the
+ * index. Writer and reader of a stream therefore build the same table, which lives as long as the
+ * stream. Other strings, such as messages and source text, are written as length-prefixed UTF-8.
+ */
+final class WireFormat {
+    /** The type of a frame carrying a {@link CheckRequest} for a check. */
+    static final byte REQUEST = 1;
+
+    /** The type of a frame carrying a {@link CheckRequest} that cancels a check. */
+    static final byte CANCEL = 2;
+
+    /** The type of a frame carrying the complete {@link CFDiagnosticList} of a check. */
+    static final byte RESULT = 3;
+
+    /** The type of a frame carrying a partial {@link CFDiagnosticList} of a running check. */
+    static final byte PARTIAL = 4;
+
+    /** Marks a {@code null} string. */
+    private static final int NULL = -1;
+
+    /** Marks an interned string that is not in the string table yet, and follows. */
+    private static final int NEW = -2;
+
+    /** This class is not meant to be instantiated. */
+    private WireFormat() {}
+
+    /** Writes frames to a stream. The methods are synchronized, as frames must not interleave. */
+    static class Writer {
+        /** The stream the frames are written to. */
+        private final DataOutputStream out;
+
+        /** The buffer the body of a frame is encoded into, to learn its length. */
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        /** Encodes into {@link #buffer}. */
+        private final DataOutputStream body = new DataOutputStream(buffer);
+
+        /** The index of each interned string written so far. */
+        private final Map<String, Integer> strings = new HashMap<>();
+
+        /** Default constructor for Writer. */
+        Writer(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out));
+        }
+
+        /**
+         * Writes a check request, or a cancellation.
+         *
+         * @param request the request
+         */
+        synchronized void writeRequest(CheckRequest request) throws IOException {
+            buffer.reset();
+            if (request.isCancel()) {
+                body.writeByte(CANCEL);
+                body.writeLong(request.getId());
+            } else {
+                body.writeByte(REQUEST);
+                body.writeLong(request.getId());
+                body.writeInt(request.getSources().size());
+                for (CheckRequest.Source source : request.getSources()) {
+                    writeInterned(source.getPath());
+                    writeString(source.getText());
+                }
+            }
+            flush();
+        }
+
+        /**
+         * Writes the result of a check, or a partial result.
+         *
+         * @param result the result
+         */
+        synchronized void writeResult(CFDiagnosticList result) throws IOException {
+            buffer.reset();
+            if (result.isPartial()) {
+                body.writeByte(PARTIAL);
+                body.writeLong(result.getId());
+                writeDiagnostics(result.getDiagnostics());
+                flush();
+                return;
+            }
+            body.writeByte(RESULT);
+            body.writeLong(result.getId());
+            body.writeBoolean(result.isCancelled());
+            writeDiagnostics(result.getDiagnostics());
+            body.writeInt(result.getReferences().size());
+            for (SourceReferences r : result.getReferences()) {
+                writeInterned(r.getFileUri());
+                writeInternedList(r.getDeclared());
+                writeInternedList(r.getReferenced());
+                writeInternedList(r.getSources());
+            }
+            body.writeLong(result.getHeapUsed());
+            body.writeInt(result.getTimings().size());
+            for (PhaseTiming t : result.getTimings()) {
+                writeInterned(t.getFile());
+                writeInterned(t.getPhase());
+                body.writeLong(t.getNanos());
+                body.writeLong(t.getAllocatedBytes());
+            }
+            flush();
+        }
+
+        /** Closes the stream, which tells the reader that no more frames follow. */
+        synchronized void close() throws IOException {
+            out.close();
+        }
+
+        /** Writes a list of diagnostics. */
+        private void writeDiagnostics(List<CFDiagnostic> diags) throws IOException {
+            body.writeInt(diags.size());
+            for (CFDiagnostic d : diags) {
+                writeInterned((String) d.getSource());
+                writeInterned(d.getKind().name());
+                body.writeLong(d.getPosition());
+                body.writeLong(d.getStartPosition());
+                body.writeLong(d.getEndPosition());
+                body.writeLong(d.getLineNumber());
+                body.writeLong(d.getColumnNumber());
+                writeInterned(d.getCode());
+                writeString(d.getMessage(null));
+            }
+        }
+
+        /** Writes the encoded body as a frame and flushes the stream. */
+        private void flush() throws IOException {
+            body.flush();
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+            out.flush();
+        }
+
+        /** Writes a string that is not interned. */
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                body.writeInt(NULL);
+                return;
+            }
+            byte[] bytes = s.getBytes(UTF_8);
+            body.writeInt(bytes.length);
+            body.write(bytes);
+        }
+
+        /** Writes an interned string. */
+        private void writeInterned(String s) throws IOException {
+            if (s == null) {
+                body.writeInt(NULL);
+                return;
+            }
+            Integer index = strings.get(s);
+            if (index != null) {
+                body.writeInt(index);
+                return;
+            }
+            strings.put(s, strings.size());
+            body.writeInt(NEW);
+            writeString(s);
+        }
+
+        /** Writes a list of interned strings. */
+        private void writeInternedList(Collection<String> list) throws IOException {
+            body.writeInt(list.size());
+            for (String s : list) {
+                writeInterned(s);
+            }
+        }
+    }
+
+    /** Reads frames from a stream. A reader is used by a single thread. */
+    static class Reader {
+        /** Counts the bytes read from the stream. */
+        private final CountingInputStream counter;
+
+        /** The stream the frames are read from. */
+        private final DataInputStream in;
+
+        /** The interned strings read so far, by index. */
+        private final List<String> strings = new ArrayList<>();
+
+        /** The number of bytes read from the stream at the end of the current frame. */
+        private long frameEnd;
+
+        /** Default constructor for Reader. */
+        Reader(InputStream in) {
+            this.counter = new CountingInputStream(new BufferedInputStream(in));
+            this.in = new DataInputStream(counter);
+        }
+
+        /**
+         * Reads the next check request or cancellation.
+         *
+         * @return the request, or {@code null} at the end of the stream
+         */
+        CheckRequest readRequest() throws IOException {
+            while (true) {
+                byte type = readFrameType();
+                CheckRequest request;
+                switch (type) {
+                    case 0:
+                        return null;
+                    case CANCEL:
+                        request = CheckRequest.cancel(in.readLong());
+                        break;
+                    case REQUEST:
+                        long id = in.readLong();
+                        int count = readCount();
+                        List<CheckRequest.Source> sources = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            sources.add(new CheckRequest.Source(readInterned(), readString()));
+                        }
+                        request = new CheckRequest(id, sources);
+                        break;
+                    default:
+                        skipFrame(type);
+                        continue;
+                }
+                endFrame(type);
+                return request;
+            }
+        }
+
+        /**
+         * Reads the next result of a check, or partial result.
+         *
+         * @return the result, or {@code null} at the end of the stream
+         */
+        CFDiagnosticList readResult() throws IOException {
+            while (true) {
+                byte type = readFrameType();
+                CFDiagnosticList result;
+                switch (type) {
+                    case 0:
+                        return null;
+                    case PARTIAL:
+                        result = CFDiagnosticList.partial(in.readLong(), readDiagnostics());
+                        break;
+                    case RESULT:
+                        long id = in.readLong();
+                        boolean cancelled = in.readBoolean();
+                        List<CFDiagnostic> diags = readDiagnostics();
+                        int count = readCount();
+                        List<SourceReferences> references = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            references.add(
+                                    new SourceReferences(
+                                            readInterned(),
+                                            readInternedList(),
+                                            readInternedList(),
+                                            readInternedList()));
+                        }
+                        long heapUsed = in.readLong();
+                        count = readCount();
+                        List<PhaseTiming> timings = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            timings.add(
+                                    new PhaseTiming(
+                                            readInterned(),
+                                            readInterned(),
+                                            in.readLong(),
+                                            in.readLong()));
+                        }
+                        result =
+                                new CFDiagnosticList(
+                                        id, cancelled, false, diags, references, heapUsed, timings);
+                        break;
+                    default:
+                        skipFrame(type);
+                        continue;
+                }
+                endFrame(type);
+                return result;
+            }
+        }
+
+        /** Reads a list of diagnostics. */
+        private List<CFDiagnostic> readDiagnostics() throws IOException {
+            int count = readCount();
+            List<CFDiagnostic> diags = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                diags.add(
+                        new CFDiagnostic(
+                                readInterned(),
+                                readInterned(),
+                                in.readLong(),
+                                in.readLong(),
+                                in.readLong(),
+                                in.readLong(),
+                                in.readLong(),
+                                readInterned(),
+                                readString()));
+            }
+            return diags;
+        }
+
+        /**
+         * Reads the header of the next frame.
+         *
+         * @return the type of the frame, or 0 at the end of the stream
+         */
+        private byte readFrameType() throws IOException {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return 0;
+            }
+            if (length < 1) {
+                throw new IOException("Invalid frame length " + length);
+            }
+            frameEnd = counter.count + length;
+            return in.readByte();
+        }
+
+        /**
+         * Checks that the current frame has been decoded to its last byte, as otherwise the next
+         * frame would be decoded from the wrong position.
+         *
+         * @param type the type of the frame
+         */
+        private void endFrame(byte type) throws IOException {
+            if (counter.count != frameEnd) {
+                throw new IOException(
+                        "Frame of type "
+                                + type
+                                + " ends "
+                                + (frameEnd - counter.count)
+                                + " bytes after its content");
+            }
+        }
+
+        /**
+         * Skips the rest of a frame of a type that this reader does not know, such as a frame of a
+         * later version of the format. A frame of a known type that is not expected here, such as a
+         * result on the stream of requests, is an error.
+         *
+         * @param type the type of the frame
+         */
+        private void skipFrame(byte type) throws IOException {
+            if (type >= REQUEST && type <= PARTIAL) {
+                throw new IOException("Unexpected frame type " + type);
+            }
+            for (long rest = frameEnd - counter.count; rest > 0; rest = frameEnd - counter.count) {
+                if (in.skipBytes((int) Math.min(rest, Integer.MAX_VALUE)) <= 0) {
+                    throw new EOFException("Frame of type " + type + " ends early");
+                }
+            }
+        }
+
+        /**
+         * Reads the number of elements of a list. Every element takes at least one byte, so a count
+         * that is negative or larger than the rest of the frame means the frame is corrupt.
+         *
+         * @return the number of elements
+         */
+        private int readCount() throws IOException {
+            int count = in.readInt();
+            if (count < 0 || count > frameEnd - counter.count) {
+                throw new IOException("Invalid element count " + count);
+            }
+            return count;
+        }
+
+        /** Reads a string that is not interned. */
+        private String readString() throws IOException {
+            int length = in.readInt();
+            if (length == NULL) {
+                return null;
+            }
+            if (length < 0 || length > frameEnd - counter.count) {
+                throw new IOException("Invalid string length " + length);
+            }
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            return new String(bytes, UTF_8);
+        }
+
+        /** Reads an interned string. */
+        private String readInterned() throws IOException {
+            int index = in.readInt();
+            if (index == NULL) {
+                return null;
+            }
+            if (index == NEW) {
+                String s = readString();
+                strings.add(s);
+                return s;
+            }
+            if (index < 0 || index >= strings.size()) {
+                throw new IOException("Invalid string index " + index);
+            }
+            return strings.get(index);
+        }
+
+        /** Reads a list of interned strings. */
+        private List<String> readInternedList() throws IOException {
+            int count = readCount();
+            List<String> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                list.add(readInterned());
+            }
+            return list;
+        }
+    }
+
+    /** An input stream that counts the bytes read from it. */
+    private static final class CountingInputStream extends FilterInputStream {
+        /** The number of bytes read so far. */
+        long count;
+
+        /** Default constructor for CountingInputStream. */
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.checkerframework.languageserver;
+
+import org.eclipse.lsp4j.ProgressParams;
+import org.eclipse.lsp4j.WorkDoneProgressBegin;
+import org.eclipse.lsp4j.WorkDoneProgressCreateParams;
+import org.eclipse.lsp4j.WorkDoneProgressEnd;
+import org.eclipse.lsp4j.WorkDoneProgressNotification;
+import org.eclipse.lsp4j.WorkDoneProgressReport;
+import org.eclipse.lsp4j.jsonrpc.messages.Either;
+import org.eclipse.lsp4j.services.LanguageClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Checks all Java sources under the workspace folders in the background. The sources are sent to
+ * {@link CheckExecutor#compileInBackground} in small batches, and only while a worker is idle and
+ * no check requested by the client is waiting, so that open and saved files always go first. A
+ * batch that gives way to such a check is tried again later, while a batch whose check is given up,
+ * for example as it runs longer than the check timeout, is counted as done without diagnostics.
+ * Progress is reported to the client with work done progress notifications.
+ */
+class WorkspaceChecker implements Runnable {
+    /** The logger for issuing information and warnings. */
+    private static final Logger logger = Logger.getLogger(WorkspaceChecker.class.getName());
+
+    /** The number of files checked in one javac task. */
+    private static final int BATCH_SIZE = 20;
+
+    /** How long to wait before looking again for an idle worker. */
+    private static final long POLL_MILLIS = 200;
+
+    /** How long to wait for the client to create the progress before checking without it. */
+    private static final long CREATE_PROGRESS_SECONDS = 10;
+
+    /** The number of workspace checks started so far, which makes their progress tokens unique. */
+    private static final AtomicInteger runs = new AtomicInteger();
+
+    /** The token of the progress reported to the client, unique to this check. */
+    private final String progressToken =
+            CFLanguageServer.SERVER_NAME + "/checkWorkspace/" + runs.incrementAndGet();
+
+    /** The document service, which provides the current executor and the requested checks. */
+    private final CFTextDocumentService service;
+
+    /** The client to report progress to, or {@code null} if it does not support progress. */
+    private final LanguageClient client;
+
+    /** Whether the client has created the progress of this check, see {@link #beginProgress()}. */
+    private boolean progressCreated;
+
+    /** The workspace folders. */
+    private final List<File> roots;
+
+    /** The thread running the check. */
+    private final Thread thread;
+
+    /** Whether the check has been stopped. */
+    private volatile boolean stopped;
+
+    /**
+     * Default constructor for workspace checker.
+     *
+     * @param service the document service
+     * @param client the client to report progress to, or {@code null} not to report progress
+     * @param roots the workspace folders
+     */
+    WorkspaceChecker(CFTextDocumentService service, LanguageClient client, List<File> roots) {
+        this.service = service;
+        this.client = client;
+        this.roots = roots;
+        this.thread = new Thread(this, "WorkspaceChecker");
+        this.thread.setDaemon(true);
+    }
+
+    /** Starts checking the workspace. */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops checking the workspace. Batches that have already been sent to a worker are still
+     * checked.
+     */
+    void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        List<File> files = findSources();
+        logger.info("Checking " + files.size() + " files in the workspace");
+        if (files.isEmpty()) {
+            return;
+        }
+        Deque<List<File>> queue = new ArrayDeque<>();
+        for (int i = 0; i < files.size(); i += BATCH_SIZE) {
+            queue.add(files.subList(i, Math.min(files.size(), i + BATCH_SIZE)));
+        }
+        beginProgress();
+        List<List<File>> inFlight = new ArrayList<>();
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        int checked = 0;
+        try {
+            while (!stopped && !(queue.isEmpty() && inFlight.isEmpty())) {
+                Iterator<List<File>> batches = inFlight.iterator();
+                Iterator<CompletableFuture<Boolean>> it = results.iterator();
+                while (batches.hasNext()) {
+                    List<File> batch = batches.next();
+                    CompletableFuture<Boolean> result = it.next();
+                    if (!result.isDone()) {
+                        continue;
+                    }
+                    batches.remove();
+                    it.remove();
+                    // A batch whose check is given up is not tried again, as it would most likely
+                    // fail the same way.
+                    if (result.isCompletedExceptionally() || result.join()) {
+                        checked += batch.size();
+                        reportProgress(checked, files.size());
+                    } else {
+                        queue.addFirst(batch);
+                    }
+                }
+                CheckExecutor executor = service.getExecutor();
+                if (!queue.isEmpty() && !service.hasScheduledChecks() && executor.hasIdleWorker()) {
+                    List<File> batch = queue.removeFirst();
+                    inFlight.add(batch);
+                    results.add(executor.compileInBackground(batch));
+                } else {
+                    Thread.sleep(POLL_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        }
+        endProgress(checked, files.size());
+    }
+
+    /** Returns the Java sources under the workspace folders, skipping hidden directories. */
+    private List<File> findSources() {
+        List<File> sources = new ArrayList<>();
+        for (File root : roots) {
+            try {
+                Files.walkFileTree(
+                        root.toPath(),
+                        new SimpleFileVisitor<Path>() {
+                            @Override
+                            public FileVisitResult preVisitDirectory(
+                                    Path dir, BasicFileAttributes attrs) {
+                                if (stopped) {
+                                    return FileVisitResult.TERMINATE;
+                                }
+                                Path name = dir.getFileName();
+                                if (name != null
+                                        && name.toString().startsWith(".")
+                                        && !dir.equals(root.toPath())) {
+                                    return FileVisitResult.SKIP_SUBTREE;
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                                if (attrs.isRegularFile()
+                                        && file.getFileName().toString().endsWith(".java")) {
+                                    sources.add(file.toFile());
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+            } catch (IOException e) {
+                logger.warning("Failed to list the sources in " + root + ": " + e.toString());
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Asks the client to show the progress of the check. If the client does not create the progress
+     * in time, the check goes on without reporting progress.
+     */
+    private void beginProgress() {
+        if (client == null) {
+            return;
+        }
+        try {
+            client.createProgress(new WorkDoneProgressCreateParams(Either.forLeft(progressToken)))
+                    .get(CREATE_PROGRESS_SECONDS, TimeUnit.SECONDS);
+            progressCreated = true;
+        } catch (ExecutionException | TimeoutException | RuntimeException e) {
+            logger.warning("Failed to create progress: " + e.toString());
+            return;
+        } catch (InterruptedException e) {
+            // Stopped, the run loop sees the flag.
+            Thread.currentThread().interrupt();
+            return;
+        }
+        WorkDoneProgressBegin begin = new WorkDoneProgressBegin();
+        begin.setTitle("Checking workspace");
+        begin.setPercentage(0);
+        notifyProgress(begin);
+    }
+
+    /**
+     * Reports the number of files checked so far.
+     *
+     * @param checked the number of files checked
+     * @param total the number of files in the workspace
+     */
+    private void reportProgress(int checked, int total) {
+        WorkDoneProgressReport report = new WorkDoneProgressReport();
+        report.setMessage(checked + "/" + total + " files");
+        report.setPercentage(checked * 100 / total);
+        notifyProgress(report);
+    }
+
+    /**
+     * Reports the end of the check.
+     *
+     * @param checked the number of files checked
+     * @param total the number of files in the workspace
+     */
+    private void endProgress(int checked, int total) {
+        logger.info("Checked " + checked + " of " + total + " files in the workspace");
+        WorkDoneProgressEnd end = new WorkDoneProgressEnd();
+        end.setMessage(checked + "/" + total + " files");
+        notifyProgress(end);
+    }
+
+    /** Sends a progress notification to the client, if it has created the progress. */
+    private void notifyProgress(WorkDoneProgressNotification notification) {
+        if (progressCreated) {
+            client.notifyProgress(
+                    new ProgressParams(
+                            Either.forLeft(progressToken), Either.forLeft(notification)));
+        }
+    }
+}
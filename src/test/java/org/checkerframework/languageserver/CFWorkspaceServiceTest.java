@@ -0,0 +1,18 @@
+package org.checkerframework.languageserver;
+
+import static org.junit.Assert.*;
+
+import com.google.gson.JsonPrimitive;
+
+import org.junit.Test;
+
+public class CFWorkspaceServiceTest {
+    @Test
+    public void testCheckIdIsReadFromNumbersAndStrings() {
+        assertEquals(42, CFWorkspaceService.checkId(new JsonPrimitive(42)));
+        assertEquals(42, CFWorkspaceService.checkId(new JsonPrimitive("42")));
+        assertEquals(42, CFWorkspaceService.checkId(42L));
+        assertEquals(-1, CFWorkspaceService.checkId(new JsonPrimitive("Foo.java")));
+        assertEquals(-1, CFWorkspaceService.checkId(new JsonPrimitive(true)));
+    }
+}
@@ -0,0 +1,70 @@
+package org.checkerframework.languageserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+public class CachingFileManagerTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private static JavaFileObject source(String text) {
+        return new SimpleJavaFileObject(
+                URI.create("string:///Foo.java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return text;
+            }
+        };
+    }
+
+    /** Compiles a source the way {@link JavacWrapper} does, and returns whether it succeeded. */
+    private static boolean compile(
+            JavaCompiler javac, CachingFileManager fileManager, File jar, File out) {
+        JavaCompiler.CompilationTask task =
+                javac.getTask(
+                        null,
+                        fileManager,
+                        null,
+                        Arrays.asList("-classpath", jar.getPath(), "-d", out.getPath()),
+                        null,
+                        Collections.singletonList(source("class Foo {}")));
+        fileManager.recordFingerprint();
+        return task.call();
+    }
+
+    @Test
+    public void testConsecutiveCompilationsReuseTheFileManager() throws IOException {
+        File jar = folder.newFile("lib.jar");
+        new JarOutputStream(new FileOutputStream(jar)).close();
+        File out = folder.newFolder("out");
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        CachingFileManager fileManager =
+                new CachingFileManager(javac.getStandardFileManager(null, null, null));
+
+        assertTrue(fileManager.isUpToDate());
+        assertTrue(compile(javac, fileManager, jar, out));
+        assertTrue(fileManager.isUpToDate());
+        assertTrue(compile(javac, fileManager, jar, out));
+        assertTrue(fileManager.isUpToDate());
+
+        // Replacing the archive on the classpath makes the file manager out of date.
+        assertTrue(jar.setLastModified(jar.lastModified() - 10_000));
+        assertFalse(fileManager.isUpToDate());
+        fileManager.close();
+    }
+}
@@ -0,0 +1,207 @@
+package org.checkerframework.languageserver;
+
+import static org.junit.Assert.*;
+
+import org.checkerframework.checker.nullness.qual.NonNull;
+import org.checkerframework.framework.util.CheckerMain;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class CheckExecutorTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Lays out the Checker Framework jars of the classpath as in a distribution, in which {@link
+     * CheckerMain} finds the jars next to checker.jar, and returns its framework path.
+     */
+    private File checkerDistribution() throws Exception {
+        File dist = folder.newFolder("framework", "checker", "dist");
+        Class<?>[] classes = {
+            CheckerMain.class,
+            NonNull.class,
+            Class.forName("org.checkerframework.checker.regex.util.RegexUtil")
+        };
+        String[] names = {"checker.jar", "checker-qual.jar", "checker-util.jar"};
+        for (int i = 0; i < classes.length; i++) {
+            Path jar =
+                    Paths.get(
+                            classes[i].getProtectionDomain().getCodeSource().getLocation().toURI());
+            Files.copy(jar, dist.toPath().resolve(names[i]));
+        }
+        return new File(folder.getRoot(), "framework");
+    }
+
+    /** Returns an executor with one worker that runs the Nullness Checker. */
+    private CheckExecutor executor(Publisher publisher, File cacheDirectory) throws Exception {
+        Settings.Config config =
+                new Settings.Config(
+                        checkerDistribution().getPath(),
+                        Collections.singletonList(
+                                "org.checkerframework.checker.nullness.NullnessChecker"),
+                        Collections.emptyList());
+        config.workers = 1;
+        config.cacheDirectory = cacheDirectory.getPath();
+        config.checkTimeoutSeconds = 0;
+        config.recycleAfterChecks = 0;
+        return new CheckExecutor(
+                publisher, new DocumentStore(), new DependencyGraph(), new Settings(config));
+    }
+
+    @Test
+    public void testForcedCheckBypassesCache() throws Exception {
+        File cacheDirectory = folder.newFolder("cache");
+        File dependent = folder.newFile("Dependent.java");
+        Files.write(dependent.toPath(), "class Dependent {}".getBytes(StandardCharsets.UTF_8));
+        String uri = dependent.getCanonicalFile().toPath().toUri().toString();
+
+        BlockingQueue<List<javax.tools.Diagnostic<?>>> published = new LinkedBlockingQueue<>();
+        Publisher publisher =
+                (Map<String, List<javax.tools.Diagnostic<?>>> diagnostics,
+                        Map<String, SourceVersion> versions) -> published.add(diagnostics.get(uri));
+        CheckExecutor executor = executor(publisher, cacheDirectory);
+        try {
+            assertTrue(
+                    executor.compile(Collections.singletonList(dependent))
+                            .get(120, TimeUnit.SECONDS));
+            published.clear();
+
+            // A stale entry, as left behind when a file the dependent uses has changed since.
+            String key = executor.key(dependent);
+            DiagnosticsCache cache = new DiagnosticsCache(cacheDirectory.toPath());
+            DiagnosticsCache.Entry checked = cache.get(key);
+            CFDiagnostic stale =
+                    new CFDiagnostic(
+                            uri,
+                            "ERROR",
+                            0,
+                            0,
+                            5,
+                            1,
+                            1,
+                            "compiler.err.proc.messager",
+                            "[dereference.of.nullable] stale");
+            cache.put(
+                    key,
+                    Collections.singletonList(stale),
+                    checked.getReferences(),
+                    checked.getSources(),
+                    checked.getClasses());
+
+            executor.compile(Collections.singletonList(dependent));
+            assertEquals(1, published.poll(0, TimeUnit.SECONDS).size());
+
+            executor.compile(Collections.singletonList(dependent), true);
+            List<javax.tools.Diagnostic<?>> forced = published.poll(120, TimeUnit.SECONDS);
+            assertNotNull(forced);
+            assertFalse(containsMessage(forced, stale.getMessage(null)));
+            assertFalse(containsMessage(cache.get(key).getDiagnostics(), stale.getMessage(null)));
+        } finally {
+            executor.retire();
+        }
+    }
+
+    @Test
+    public void testEntryIsStaleAfterReferencedFileChanged() throws Exception {
+        File cacheDirectory = folder.newFolder("cache");
+        File user = folder.newFile("User.java");
+        Files.write(user.toPath(), "class User { Used u; }".getBytes(StandardCharsets.UTF_8));
+        File used = folder.newFile("Used.java");
+        Files.write(used.toPath(), "class Used {}".getBytes(StandardCharsets.UTF_8));
+        // A file modified around the time it is checked is not trusted to be the one checked.
+        long hourAgo = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+        Files.setLastModifiedTime(used.toPath(), FileTime.fromMillis(hourAgo));
+
+        CheckExecutor executor = executor((diagnostics, versions) -> {}, cacheDirectory);
+        try {
+            assertTrue(executor.compile(Arrays.asList(user, used)).get(120, TimeUnit.SECONDS));
+            executor.compile(Collections.singletonList(user));
+            assertFalse(executor.isChecking(user));
+
+            Files.write(used.toPath(), "class Used { int i; }".getBytes(StandardCharsets.UTF_8));
+            Files.setLastModifiedTime(used.toPath(), FileTime.fromMillis(hourAgo));
+            CompletableFuture<Boolean> done = executor.compile(Collections.singletonList(user));
+            assertTrue(executor.isChecking(user));
+            assertTrue(done.get(120, TimeUnit.SECONDS));
+        } finally {
+            executor.retire();
+        }
+    }
+
+    @Test
+    public void testFileBatchedWithBrokenFileIsNotCached() throws Exception {
+        File cacheDirectory = folder.newFolder("cache");
+        File clean = folder.newFile("Clean.java");
+        Files.write(clean.toPath(), "class Clean {}".getBytes(StandardCharsets.UTF_8));
+        File broken = folder.newFile("Broken.java");
+        Files.write(broken.toPath(), "class Broken {".getBytes(StandardCharsets.UTF_8));
+
+        CheckExecutor executor = executor((diagnostics, versions) -> {}, cacheDirectory);
+        try {
+            assertTrue(executor.compile(Arrays.asList(clean, broken)).get(120, TimeUnit.SECONDS));
+            DiagnosticsCache cache = new DiagnosticsCache(cacheDirectory.toPath());
+            assertNull(cache.get(executor.key(clean)));
+            assertNotNull(cache.get(executor.key(broken)));
+        } finally {
+            executor.retire();
+        }
+    }
+
+    @Test
+    public void testCheckerErrorsAreNotCompilerErrors() {
+        CFDiagnostic checker =
+                new CFDiagnostic(
+                        "file:///A.java",
+                        "ERROR",
+                        0,
+                        0,
+                        1,
+                        1,
+                        1,
+                        "compiler.err.proc.messager",
+                        "[dereference.of.nullable]");
+        CFDiagnostic javac =
+                new CFDiagnostic(
+                        "file:///B.java",
+                        "ERROR",
+                        0,
+                        0,
+                        1,
+                        1,
+                        1,
+                        "compiler.err.premature.eof",
+                        "reached end of file while parsing");
+        assertTrue(
+                CheckExecutor.sourcesWithCompilerErrors(Collections.singletonList(checker))
+                        .isEmpty());
+        assertEquals(
+                Collections.singleton("file:///B.java"),
+                CheckExecutor.sourcesWithCompilerErrors(Arrays.asList(checker, javac)));
+    }
+
+    /** Returns true if one of the diagnostics has the given message. */
+    private static boolean containsMessage(
+            List<javax.tools.Diagnostic<?>> diagnostics, String message) {
+        for (javax.tools.Diagnostic<?> d : diagnostics) {
+            if (message.equals(d.getMessage(null))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
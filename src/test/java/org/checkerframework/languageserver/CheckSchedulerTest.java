@@ -0,0 +1,91 @@
+package org.checkerframework.languageserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public class CheckSchedulerTest {
+    @Test
+    public void testRequestsWithinQuietWindowAreCoalesced() throws Exception {
+        BlockingQueue<List<File>> batches = new LinkedBlockingQueue<>();
+        CheckScheduler scheduler =
+                new CheckScheduler(
+                        (files, force) -> {
+                            batches.add(files);
+                            return CompletableFuture.completedFuture(true);
+                        },
+                        200);
+        File a = new File("A.java");
+        File b = new File("B.java");
+
+        CompletableFuture<Boolean> checked = scheduler.schedule(Collections.singletonList(a));
+        scheduler.schedule(Collections.singletonList(b));
+        scheduler.schedule(Collections.singletonList(a));
+        assertSame(checked, scheduler.whenChecked(b));
+
+        assertEquals(Arrays.asList(a, b), batches.poll(5, TimeUnit.SECONDS));
+        assertTrue(checked.get(5, TimeUnit.SECONDS));
+        assertNull(scheduler.whenChecked(b));
+        assertNull(batches.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testForcedFilesAreSentApart() throws InterruptedException {
+        BlockingQueue<List<File>> batches = new LinkedBlockingQueue<>();
+        BlockingQueue<List<File>> forcedBatches = new LinkedBlockingQueue<>();
+        CheckScheduler scheduler =
+                new CheckScheduler(
+                        (files, force) -> {
+                            (force ? forcedBatches : batches).add(files);
+                            return CompletableFuture.completedFuture(true);
+                        },
+                        200);
+        File a = new File("A.java");
+        File b = new File("B.java");
+        File c = new File("C.java");
+
+        scheduler.schedule(Collections.singletonList(a));
+        scheduler.schedule(Arrays.asList(b, c), true);
+        scheduler.schedule(Collections.singletonList(b));
+
+        assertEquals(Collections.singletonList(a), batches.poll(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(b, c), forcedBatches.poll(5, TimeUnit.SECONDS));
+        assertNull(batches.poll(500, TimeUnit.MILLISECONDS));
+        assertNull(forcedBatches.poll(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testContinuedRequestsDoNotPostponeTheBatchForever() throws InterruptedException {
+        BlockingQueue<List<File>> batches = new LinkedBlockingQueue<>();
+        CheckScheduler scheduler =
+                new CheckScheduler(
+                        (files, force) -> {
+                            batches.add(files);
+                            return CompletableFuture.completedFuture(true);
+                        },
+                        200);
+        File a = new File("A.java");
+
+        long start = System.nanoTime();
+        List<File> batch = null;
+        // A request every 100 ms would reset a plain quiet window of 200 ms forever.
+        while (batch == null && System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5)) {
+            scheduler.schedule(Collections.singletonList(a));
+            batch = batches.poll(100, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(Collections.singletonList(a), batch);
+        assertTrue(
+                System.nanoTime() - start
+                        < TimeUnit.MILLISECONDS.toNanos(
+                                (CheckScheduler.MAX_WAIT_WINDOWS + 2) * 200));
+    }
+}
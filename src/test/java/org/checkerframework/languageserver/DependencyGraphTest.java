@@ -0,0 +1,36 @@
+package org.checkerframework.languageserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class DependencyGraphTest {
+    @Test
+    public void testDependentsAreTransitiveAndNearestFirst() {
+        DependencyGraph graph = new DependencyGraph();
+        graph.update(references("file:///A.java", "A"));
+        graph.update(references("file:///B.java", "B", "A"));
+        graph.update(references("file:///C.java", "C", "B"));
+        graph.update(references("file:///D.java", "D"));
+
+        assertEquals(
+                Arrays.asList("file:///B.java", "file:///C.java"),
+                graph.dependents("file:///A.java"));
+        assertEquals(Collections.emptyList(), graph.dependents("file:///D.java"));
+
+        // B no longer refers to A after it is checked again.
+        graph.update(references("file:///B.java", "B"));
+        assertEquals(Collections.emptyList(), graph.dependents("file:///A.java"));
+    }
+
+    private static SourceReferences references(String uri, String declared, String... referenced) {
+        return new SourceReferences(
+                uri,
+                Collections.singletonList(declared),
+                Arrays.asList(referenced),
+                Collections.emptyList());
+    }
+}
@@ -0,0 +1,162 @@
+package org.checkerframework.languageserver;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+public class DiagnosticsCacheTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoredDiagnosticsAreFoundByContent() throws IOException {
+        List<String> options = Arrays.asList("-processor", "NullnessChecker");
+        SourceKeys keys = new SourceKeys(options);
+        DiagnosticsCache cache = new DiagnosticsCache(folder.getRoot().toPath());
+        String key = keys.key("/src/Foo.java", "class Foo {}");
+        assertNull(cache.get(key));
+
+        SourceReferences references =
+                new SourceReferences(
+                        "file:///src/Foo.java",
+                        Collections.singletonList("Foo"),
+                        Collections.singletonList("Bar"),
+                        Collections.singletonList("file:///src/Bar.java"));
+        cache.put(
+                key,
+                Collections.singletonList(new CFDiagnostic(new FakeDiagnostic())),
+                references,
+                Collections.singletonMap("file:///src/Bar.java", "bar"),
+                "1:10:1000");
+
+        // A new cache on the same directory, as after a restart, finds the entry.
+        DiagnosticsCache reopened = new DiagnosticsCache(folder.getRoot().toPath());
+        DiagnosticsCache.Entry entry = reopened.get(key);
+        assertNotNull(entry);
+        assertEquals(Collections.singletonList("Bar"), entry.getReferences().getReferenced());
+        List<Diagnostic<?>> diags = entry.getDiagnostics();
+        assertEquals(1, diags.size());
+        assertEquals("compiler.err.proc.messager", diags.get(0).getCode());
+        assertEquals(3, diags.get(0).getLineNumber());
+        assertEquals("file:///src/Foo.java", diags.get(0).getSource());
+
+        assertNotEquals(key, keys.key("/src/Foo.java", "class Foo { }"));
+        assertNotEquals(key, keys.key("/src/Bar.java", "class Foo {}"));
+        assertEquals(key, keys.key("/src/Foo.java", "class Foo {}".getBytes(UTF_8)));
+        SourceKeys otherOptions = new SourceKeys(Arrays.asList("-processor", "OtherChecker"));
+        assertNotEquals(key, otherOptions.key("/src/Foo.java", "class Foo {}"));
+    }
+
+    @Test
+    public void testEntryIsCurrentWhileDependenciesAreUnchanged() throws IOException {
+        DiagnosticsCache cache = new DiagnosticsCache(folder.getRoot().toPath());
+        cache.put(
+                "key",
+                Collections.emptyList(),
+                null,
+                Collections.singletonMap("file:///src/Bar.java", "bar"),
+                "1:10:1000");
+        DiagnosticsCache.Entry entry = cache.get("key");
+        assertTrue(entry.isCurrent("1:10:1000", uri -> "bar"));
+        assertFalse(entry.isCurrent("1:10:1000", uri -> "changed"));
+        assertFalse(entry.isCurrent("2:20:2000", uri -> "bar"));
+        assertFalse(entry.isCurrent(null, uri -> "bar"));
+    }
+
+    @Test
+    public void testClassDirectoriesChangeWithTheirFiles() throws IOException {
+        Path classes = folder.newFolder("classes").toPath();
+        SourceKeys keys =
+                new SourceKeys(Arrays.asList("-classpath", classes.toString(), "-proc:only"));
+        String empty = keys.classDirectories();
+        assertEquals(empty, keys.classDirectories());
+
+        Path foo = classes.resolve("Foo.class");
+        Files.write(foo, new byte[] {1, 2});
+        String built = keys.classDirectories();
+        assertNotEquals(empty, built);
+
+        Files.write(foo, new byte[] {1, 2, 3});
+        assertNotEquals(built, keys.classDirectories());
+    }
+
+    @Test
+    public void testLeftoverTemporaryFilesArePruned() throws IOException {
+        Path directory = folder.getRoot().toPath();
+        Path old = Files.createTempFile(directory, "entry", ".tmp");
+        Files.setLastModifiedTime(
+                old, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1)));
+        Path recent = Files.createTempFile(directory, "entry", ".tmp");
+
+        new DiagnosticsCache(directory);
+        assertFalse(Files.exists(old));
+        // It may be written by another server right now.
+        assertTrue(Files.exists(recent));
+    }
+
+    /** A javac diagnostic with fixed values. */
+    private static class FakeDiagnostic implements Diagnostic<JavaFileObject> {
+        @Override
+        public Kind getKind() {
+            return Kind.ERROR;
+        }
+
+        @Override
+        public JavaFileObject getSource() {
+            return new SimpleJavaFileObject(
+                    URI.create("file:///src/Foo.java"), JavaFileObject.Kind.SOURCE) {};
+        }
+
+        @Override
+        public long getPosition() {
+            return 20;
+        }
+
+        @Override
+        public long getStartPosition() {
+            return 20;
+        }
+
+        @Override
+        public long getEndPosition() {
+            return 25;
+        }
+
+        @Override
+        public long getLineNumber() {
+            return 3;
+        }
+
+        @Override
+        public long getColumnNumber() {
+            return 5;
+        }
+
+        @Override
+        public String getCode() {
+            return "compiler.err.proc.messager";
+        }
+
+        @Override
+        public String getMessage(Locale locale) {
+            return "[dereference.of.nullable] dereference of possibly-null reference o";
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.checkerframework.languageserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+public class RequestSenderTest {
+    /** A stream that blocks its first write until released, as a wrapper that stopped reading. */
+    private static class StalledStream extends OutputStream {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch released = new CountDownLatch(1);
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writing.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            bytes.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    private static CheckRequest request(long id) {
+        return new CheckRequest(
+                id,
+                Collections.singletonList(
+                        new CheckRequest.Source("/src/Foo.java", "class Foo {}")));
+    }
+
+    @Test
+    public void testCancellationSupersedesQueuedRequest() throws Exception {
+        StalledStream stream = new StalledStream();
+        RequestSender sender = new RequestSender(new WireFormat.Writer(stream), "test");
+        assertTrue(sender.send(request(1)));
+        stream.writing.await();
+        assertTrue(sender.send(request(2)));
+        assertTrue(sender.send(CheckRequest.cancel(2)));
+        sender.close();
+        assertFalse(sender.send(request(3)));
+        stream.released.countDown();
+        stream.closed.await();
+
+        WireFormat.Reader reader =
+                new WireFormat.Reader(new ByteArrayInputStream(stream.bytes.toByteArray()));
+        CheckRequest first = reader.readRequest();
+        assertEquals(1, first.getId());
+        assertEquals(1, first.getSources().size());
+        CheckRequest cancel = reader.readRequest();
+        assertTrue(cancel.isCancel());
+        assertEquals(2, cancel.getId());
+        CheckRequest superseded = reader.readRequest();
+        assertFalse(superseded.isCancel());
+        assertEquals(2, superseded.getId());
+        assertTrue(superseded.getSources().isEmpty());
+        assertNull(reader.readRequest());
+    }
+
+    @Test
+    public void testFullQueueRefusesChecksButNotCancellations() throws Exception {
+        StalledStream stream = new StalledStream();
+        RequestSender sender = new RequestSender(new WireFormat.Writer(stream), "test");
+        assertTrue(sender.send(request(0)));
+        stream.writing.await();
+        for (int i = 1; i <= RequestSender.CAPACITY; i++) {
+            assertTrue(sender.send(request(i)));
+        }
+        assertFalse(sender.send(request(RequestSender.CAPACITY + 1)));
+        assertTrue(sender.send(CheckRequest.cancel(RequestSender.CAPACITY + 2)));
+        sender.closeNow();
+        stream.released.countDown();
+        stream.closed.await();
+    }
+}
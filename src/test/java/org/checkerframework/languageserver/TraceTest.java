@@ -0,0 +1,54 @@
+package org.checkerframework.languageserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.logging.Level;
+
+public class TraceTest {
+    @Test
+    public void testKeepsTheLatestEvents() {
+        Trace trace = new Trace(4);
+        for (int i = 0; i < 6; i++) {
+            trace.event(Level.FINE, 0, "event %s", i);
+        }
+        List<String> lines = trace.dump(-1);
+        assertEquals(4, lines.size());
+        assertTrue(lines.get(0).endsWith(": event 2"));
+        assertTrue(lines.get(3).endsWith(": event 5"));
+    }
+
+    @Test
+    public void testLevelGate() {
+        Trace trace = new Trace(4);
+        trace.event(Level.FINER, 0, "dropped");
+        trace.event(Level.FINE, 0, "kept");
+        assertEquals(1, trace.dump(-1).size());
+        trace.setLevel(Level.OFF);
+        trace.event(Level.SEVERE, 0, "dropped");
+        assertEquals(1, trace.dump(-1).size());
+    }
+
+    @Test
+    public void testDumpsOneCheck() {
+        Trace trace = new Trace(8);
+        trace.event(Level.FINE, 1, "checking %s", "file:///src/Foo.java");
+        trace.event(Level.FINE, 2, "checking %s", "file:///src/Bar.java");
+        trace.event(Level.FINE, 1, "result: %s diagnostics", 3);
+        List<String> lines = trace.dump(1);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).endsWith("check 1: checking file:///src/Foo.java"));
+        assertTrue(lines.get(1).endsWith("check 1: result: 3 diagnostics"));
+    }
+
+    @Test
+    public void testFormatsLazily() {
+        Trace trace = new Trace(4);
+        StringBuilder argument = new StringBuilder("before");
+        trace.event(Level.FINE, 0, "%s", argument);
+        argument.replace(0, argument.length(), "after");
+        assertTrue(trace.dump(-1).get(0).endsWith(": after"));
+    }
+}
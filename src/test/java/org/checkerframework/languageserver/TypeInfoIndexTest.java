@@ -0,0 +1,30 @@
+package org.checkerframework.languageserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class TypeInfoIndexTest {
+    @Test
+    public void testInnermostRangeIsFound() {
+        TypeInfoIndex.Builder builder = new TypeInfoIndex.Builder();
+        builder.add(1, 4, 1, 30, "call");
+        builder.add(1, 10, 1, 20, "argument");
+        builder.add(1, 10, 1, 20, "argument, other checker");
+        builder.add(1, 22, 1, 25, "other argument");
+        builder.add(0, 0, 3, 0, "method");
+        TypeInfoIndex index = builder.build();
+
+        assertEquals(Collections.singletonList("method"), index.get(0, 5));
+        assertEquals(Collections.singletonList("call"), index.get(1, 4));
+        assertEquals(Arrays.asList("argument", "argument, other checker"), index.get(1, 15));
+        assertEquals(Collections.singletonList("call"), index.get(1, 21));
+        assertEquals(Collections.singletonList("other argument"), index.get(1, 25));
+        assertEquals(Collections.singletonList("call"), index.get(1, 30));
+        assertEquals(Collections.singletonList("method"), index.get(2, 0));
+        assertEquals(Collections.emptyList(), index.get(4, 0));
+    }
+}
@@ -0,0 +1,224 @@
+package org.checkerframework.languageserver;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class WireFormatTest {
+    @Test
+    public void testRequestsRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WireFormat.Writer writer = new WireFormat.Writer(bytes);
+        writer.writeRequest(
+                new CheckRequest(
+                        1,
+                        Arrays.asList(
+                                new CheckRequest.Source("/src/Foo.java", "class Foo {}"),
+                                new CheckRequest.Source("/src/Bar.java", null))));
+        writer.writeRequest(CheckRequest.cancel(1));
+
+        WireFormat.Reader reader =
+                new WireFormat.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        CheckRequest request = reader.readRequest();
+        assertEquals(1, request.getId());
+        assertFalse(request.isCancel());
+        assertEquals(2, request.getSources().size());
+        assertEquals("/src/Foo.java", request.getSources().get(0).getPath());
+        assertEquals("class Foo {}", request.getSources().get(0).getText());
+        assertNull(request.getSources().get(1).getText());
+        assertTrue(reader.readRequest().isCancel());
+        assertNull(reader.readRequest());
+    }
+
+    @Test
+    public void testResultsShareInternedStrings() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WireFormat.Writer writer = new WireFormat.Writer(bytes);
+        writer.writeResult(result(1, "o"));
+        int first = bytes.size();
+        writer.writeResult(result(2, "p"));
+        // The URIs, kind, code and type names of the second result are only table indexes.
+        assertTrue(bytes.size() - first < first);
+
+        WireFormat.Reader reader =
+                new WireFormat.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        reader.readResult();
+        CFDiagnosticList second = reader.readResult();
+        assertEquals(2, second.getId());
+        assertFalse(second.isCancelled());
+        CFDiagnostic d = second.getDiagnostics().get(0);
+        assertEquals("file:///src/Foo.java", d.getSource());
+        assertEquals("compiler.err.proc.messager", d.getCode());
+        assertEquals(3, d.getLineNumber());
+        assertEquals("dereference of p", d.getMessage(null));
+        assertEquals(
+                Collections.singletonList("Bar"), second.getReferences().get(0).getReferenced());
+        assertNull(reader.readResult());
+    }
+
+    @Test
+    public void testPartialResultsPrecedeTheCompleteResult() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WireFormat.Writer writer = new WireFormat.Writer(bytes);
+        writer.writeResult(CFDiagnosticList.partial(1, result(1, "o").getDiagnostics()));
+        writer.writeResult(result(1, "p"));
+
+        WireFormat.Reader reader =
+                new WireFormat.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        CFDiagnosticList partial = reader.readResult();
+        assertTrue(partial.isPartial());
+        assertEquals("dereference of o", partial.getDiagnostics().get(0).getMessage(null));
+        CFDiagnosticList complete = reader.readResult();
+        assertFalse(complete.isPartial());
+        assertEquals(1, complete.getReferences().size());
+    }
+
+    @Test
+    public void testTimingsRoundTrip() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CFDiagnosticList result = result(1, "o");
+        new WireFormat.Writer(bytes)
+                .writeResult(
+                        new CFDiagnosticList(
+                                1,
+                                false,
+                                false,
+                                result.getDiagnostics(),
+                                result.getReferences(),
+                                0,
+                                Arrays.asList(
+                                        new PhaseTiming(null, "enter", 5, 0),
+                                        new PhaseTiming(
+                                                "file:///src/Foo.java",
+                                                "org.checkerframework.checker.nullness.NullnessChecker",
+                                                1000,
+                                                2048))));
+
+        List<PhaseTiming> timings =
+                new WireFormat.Reader(new ByteArrayInputStream(bytes.toByteArray()))
+                        .readResult()
+                        .getTimings();
+        assertEquals(2, timings.size());
+        assertNull(timings.get(0).getFile());
+        assertEquals("file:///src/Foo.java", timings.get(1).getFile());
+        assertEquals(1000, timings.get(1).getNanos());
+        assertEquals(2048, timings.get(1).getAllocatedBytes());
+    }
+
+    private static CFDiagnosticList result(long id, String variable) {
+        List<CFDiagnostic> diags =
+                Collections.singletonList(
+                        new CFDiagnostic(
+                                "file:///src/Foo.java",
+                                "ERROR",
+                                20,
+                                20,
+                                21,
+                                3,
+                                5,
+                                "compiler.err.proc.messager",
+                                "dereference of " + variable));
+        List<SourceReferences> references =
+                Collections.singletonList(
+                        new SourceReferences(
+                                "file:///src/Foo.java",
+                                Collections.singletonList("Foo"),
+                                Collections.singletonList("Bar"),
+                                Collections.singletonList("file:///src/Bar.java")));
+        return new CFDiagnosticList(id, false, false, diags, references, 0, new ArrayList<>());
+    }
+
+    @Test
+    public void testUnknownFramesAreSkipped() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // A frame of a type this reader does not know, with a body of 8 bytes after the type.
+        out.writeInt(9);
+        out.writeByte(42);
+        out.writeLong(7);
+        out.flush();
+        new WireFormat.Writer(bytes).writeRequest(CheckRequest.cancel(3));
+
+        WireFormat.Reader reader =
+                new WireFormat.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        CheckRequest cancel = reader.readRequest();
+        assertTrue(cancel.isCancel());
+        assertEquals(3, cancel.getId());
+        assertNull(reader.readRequest());
+    }
+
+    @Test
+    public void testFrameLongerThanItsContentIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(13);
+        out.writeByte(WireFormat.CANCEL);
+        out.writeLong(3);
+        out.writeInt(0);
+        out.flush();
+
+        WireFormat.Reader reader =
+                new WireFormat.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThrows(IOException.class, reader::readRequest);
+    }
+
+    @Test
+    public void testNegativeStringLengthIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // A request for one source whose path is a new interned string of length -5.
+        out.writeInt(21);
+        out.writeByte(WireFormat.REQUEST);
+        out.writeLong(1);
+        out.writeInt(1);
+        out.writeInt(-2);
+        out.writeInt(-5);
+        out.flush();
+
+        WireFormat.Reader reader =
+                new WireFormat.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThrows(IOException.class, reader::readRequest);
+    }
+
+    @Test
+    public void testUnknownInternIndexIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // A request for one source whose path refers to string 7, which the stream never sent.
+        out.writeInt(21);
+        out.writeByte(WireFormat.REQUEST);
+        out.writeLong(1);
+        out.writeInt(1);
+        out.writeInt(7);
+        out.writeInt(-1);
+        out.flush();
+
+        WireFormat.Reader reader =
+                new WireFormat.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThrows(IOException.class, reader::readRequest);
+    }
+
+    @Test
+    public void testCountBeyondTheFrameIsRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(13);
+        out.writeByte(WireFormat.REQUEST);
+        out.writeLong(1);
+        out.writeInt(Integer.MAX_VALUE);
+        out.flush();
+
+        WireFormat.Reader reader =
+                new WireFormat.Reader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThrows(IOException.class, reader::readRequest);
+    }
+}